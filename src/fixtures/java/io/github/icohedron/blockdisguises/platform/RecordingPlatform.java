@@ -0,0 +1,328 @@
+package io.github.icohedron.blockdisguises.platform;
+
+import com.flowpowered.math.vector.Vector3d;
+import io.github.icohedron.blockdisguises.BlockKeys;
+import org.spongepowered.api.block.BlockState;
+import org.spongepowered.api.entity.Entity;
+import org.spongepowered.api.entity.EntityType;
+import org.spongepowered.api.entity.living.player.Player;
+import org.spongepowered.api.world.Location;
+import org.spongepowered.api.world.World;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+// In-memory stand-in for the server that records every block change and entity operation instead of performing it
+// Worlds are entirely air unless told otherwise, and entities are bare records that are never ticked
+// Async tasks run immediately on the calling thread, so runs are deterministic
+public class RecordingPlatform implements Platform {
+
+    public enum Operation {
+        BLOCK_CHANGE, BLOCK_RESET, ENTITY_SPAWN, ENTITY_MOUNT, ENTITY_TELEPORT, ENTITY_VANISH, ENTITY_SHOW, ENTITY_RETAG, ENTITY_REMOVE, ASYNC_TASK
+    }
+
+    // A single recorded operation. Target is the viewer of block operations and the entity of entity operations
+    public static final class Record {
+        private final Operation operation;
+        private final UUID target;
+        private final int x;
+        private final int y;
+        private final int z;
+        private final BlockState blockState;
+
+        private Record(Operation operation, UUID target, int x, int y, int z, BlockState blockState) {
+            this.operation = operation;
+            this.target = target;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.blockState = blockState;
+        }
+
+        public Operation getOperation() {
+            return operation;
+        }
+
+        public UUID getTarget() {
+            return target;
+        }
+
+        public int getX() {
+            return x;
+        }
+
+        public int getY() {
+            return y;
+        }
+
+        public int getZ() {
+            return z;
+        }
+
+        public BlockState getBlockState() {
+            return blockState;
+        }
+    }
+
+    // What the platform knows about a spawned entity
+    private static final class EntityRecord {
+        private final UUID uniqueId = UUID.randomUUID();
+        private final EntityType type;
+        private final World world;
+        private Entity entity; // The entity handed out for this record
+        private Location<World> location;
+        private boolean removed;
+        private boolean vanished;
+
+        private EntityRecord(EntityType type, World world, Vector3d position) {
+            this.type = type;
+            this.world = world;
+            this.location = new Location<>(world, position);
+        }
+    }
+
+    private final boolean keepLog; // Whether every operation is kept, not just counted
+    private final List<Record> log = new ArrayList<>();
+    private final long[] counts = new long[Operation.values().length];
+
+    private final Map<UUID, Player> onlinePlayers = new LinkedHashMap<>(); // <Player UUID, Player>, in join order
+    private final Map<UUID, Map<Long, BlockState>> clientBlocks = new HashMap<>(); // <Player UUID, <Block key, Fake block the client has>>
+    private final Map<UUID, Set<Long>> solidBlocks = new HashMap<>(); // <World UUID, Block keys that are not air>
+    private final Map<UUID, EntityRecord> entities = new HashMap<>(); // <Entity UUID, Entity>, only entities that were not removed
+    private final Map<Entity, EntityRecord> records = new HashMap<>(); // <Entity, Entity>, to look up the record of an entity handed back
+
+    public RecordingPlatform() {
+        this(false);
+    }
+
+    public RecordingPlatform(boolean keepLog) {
+        this.keepLog = keepLog;
+    }
+
+    public void addPlayer(Player player) {
+        onlinePlayers.put(player.getUniqueId(), player);
+    }
+
+    // Takes a player offline. Their client forgets every fake block it was sent
+    public void removePlayer(UUID player) {
+        onlinePlayers.remove(player);
+        clientBlocks.remove(player);
+    }
+
+    // Makes the block at the given position solid (or air again) for isAir
+    public void setSolid(World world, int x, int y, int z, boolean solid) {
+        if (solid) {
+            solidBlocks.computeIfAbsent(world.getUniqueId(), w -> new HashSet<>()).add(BlockKeys.pack(x, y, z));
+        } else {
+            Set<Long> blocks = solidBlocks.get(world.getUniqueId());
+            if (blocks != null) {
+                blocks.remove(BlockKeys.pack(x, y, z));
+            }
+        }
+    }
+
+    @Override
+    public Collection<Player> getOnlinePlayers() {
+        return Collections.unmodifiableCollection(onlinePlayers.values());
+    }
+
+    @Override
+    public Optional<Player> getPlayer(UUID player) {
+        return Optional.ofNullable(onlinePlayers.get(player));
+    }
+
+    @Override
+    public void sendBlockChange(Player viewer, int x, int y, int z, BlockState blockState) {
+        clientBlocks.computeIfAbsent(viewer.getUniqueId(), v -> new HashMap<>()).put(BlockKeys.pack(x, y, z), blockState);
+        record(Operation.BLOCK_CHANGE, viewer.getUniqueId(), x, y, z, blockState);
+    }
+
+    @Override
+    public void resetBlockChange(Player viewer, int x, int y, int z) {
+        Map<Long, BlockState> blocks = clientBlocks.get(viewer.getUniqueId());
+        if (blocks != null) {
+            blocks.remove(BlockKeys.pack(x, y, z));
+        }
+        record(Operation.BLOCK_RESET, viewer.getUniqueId(), x, y, z, null);
+    }
+
+    @Override
+    public boolean isAir(World world, int x, int y, int z) {
+        Set<Long> blocks = solidBlocks.get(world.getUniqueId());
+        return blocks == null || !blocks.contains(BlockKeys.pack(x, y, z));
+    }
+
+    @Override
+    public Entity spawnEntity(World world, EntityType type, Vector3d position, Consumer<Entity> setup) {
+        // The setup only offers data, which recorded entities do not hold
+        EntityRecord record = new EntityRecord(type, world, position);
+        Entity entity = createEntity(record);
+        record.entity = entity;
+        entities.put(record.uniqueId, record);
+        records.put(entity, record);
+        record(Operation.ENTITY_SPAWN, record.uniqueId, position.getFloorX(), position.getFloorY(), position.getFloorZ(), null);
+        return entity;
+    }
+
+    @Override
+    public void mountEntity(Entity vehicle, Entity passenger) {
+        record(Operation.ENTITY_MOUNT, vehicle.getUniqueId(), 0, 0, 0, null);
+    }
+
+    @Override
+    public Optional<Entity> getEntity(World world, UUID entity) {
+        EntityRecord record = entities.get(entity);
+        if (record == null || !record.world.getUniqueId().equals(world.getUniqueId())) {
+            return Optional.empty();
+        }
+
+        return Optional.of(record.entity);
+    }
+
+    @Override
+    public void teleportEntity(Entity entity, Location<World> location) {
+        EntityRecord record = records.get(entity);
+        if (record != null && !record.removed) {
+            record.location = location;
+        }
+        record(Operation.ENTITY_TELEPORT, entity.getUniqueId(), location.getBlockX(), location.getBlockY(), location.getBlockZ(), null);
+    }
+
+    @Override
+    public Location<World> getParkingLocation(World world) {
+        return new Location<>(world, 0.5, 255, 0.5);
+    }
+
+    @Override
+    public void setEntityVanished(Entity entity, boolean vanished) {
+        EntityRecord record = records.get(entity);
+        if (record != null) {
+            record.vanished = vanished;
+        }
+        record(vanished ? Operation.ENTITY_VANISH : Operation.ENTITY_SHOW, entity.getUniqueId(), 0, 0, 0, null);
+    }
+
+    @Override
+    public void setDisguiseOwner(Entity entity, UUID owner) {
+        record(Operation.ENTITY_RETAG, entity.getUniqueId(), 0, 0, 0, null);
+    }
+
+    @Override
+    public void setFallingBlockState(Entity fallingBlock, BlockState blockState) {
+        record(Operation.ENTITY_RETAG, fallingBlock.getUniqueId(), 0, 0, 0, blockState);
+    }
+
+    @Override
+    public void removeEntity(Entity entity) {
+        EntityRecord record = records.remove(entity);
+        if (record != null) {
+            record.removed = true;
+            entities.remove(record.uniqueId);
+        }
+        record(Operation.ENTITY_REMOVE, entity.getUniqueId(), 0, 0, 0, null);
+    }
+
+    @Override
+    public void runAsync(Runnable task) {
+        record(Operation.ASYNC_TASK, null, 0, 0, 0, null);
+        task.run();
+    }
+
+    private void record(Operation operation, UUID target, int x, int y, int z, BlockState blockState) {
+        counts[operation.ordinal()]++;
+        if (keepLog) {
+            log.add(new Record(operation, target, x, y, z, blockState));
+        }
+    }
+
+    // A bare entity backed by its record. Anything that is not about identity, location or removal does nothing
+    private Entity createEntity(EntityRecord record) {
+        return (Entity) Proxy.newProxyInstance(Entity.class.getClassLoader(), new Class<?>[] {Entity.class}, (self, method, args) -> {
+            switch (method.getName()) {
+                case "getUniqueId":
+                    return record.uniqueId;
+                case "getType":
+                    return record.type;
+                case "getWorld":
+                    return record.world;
+                case "getLocation":
+                    return record.location;
+                case "isRemoved":
+                    return record.removed;
+                case "equals":
+                    return args != null && args.length == 1 && self == args[0];
+                case "hashCode":
+                    return System.identityHashCode(self);
+                case "toString":
+                    return "RecordedEntity{" + record.uniqueId + "}";
+                default:
+                    break;
+            }
+
+            Class<?> returnType = method.getReturnType();
+            if (returnType == boolean.class) {
+                return false;
+            } else if (returnType == Optional.class) {
+                return Optional.empty();
+            } else if (returnType.isPrimitive() && returnType != void.class) {
+                return returnType == double.class ? (Object) 0.0 : returnType == float.class ? (Object) 0.0f : returnType == long.class ? (Object) 0L : (Object) 0;
+            }
+            return null;
+        });
+    }
+
+    public long getCount(Operation operation) {
+        return counts[operation.ordinal()];
+    }
+
+    // Fake block a player's client currently has at the given position, or null if it shows the real block
+    public BlockState getClientBlock(UUID player, int x, int y, int z) {
+        Map<Long, BlockState> blocks = clientBlocks.get(player);
+        return blocks == null ? null : blocks.get(BlockKeys.pack(x, y, z));
+    }
+
+    // Amount of fake blocks a player's client currently has
+    public int getClientBlockCount(UUID player) {
+        Map<Long, BlockState> blocks = clientBlocks.get(player);
+        return blocks == null ? 0 : blocks.size();
+    }
+
+    // Entities that were spawned and not removed yet, vanished or not
+    public int getEntityCount() {
+        return entities.size();
+    }
+
+    public int getVisibleEntityCount() {
+        int visible = 0;
+        for (EntityRecord record : entities.values()) {
+            if (!record.vanished) {
+                visible++;
+            }
+        }
+        return visible;
+    }
+
+    // Every operation since the last reset, in order. Empty unless the platform keeps a log
+    public List<Record> getLog() {
+        return Collections.unmodifiableList(log);
+    }
+
+    // Clears the counts and the log, but not the state of clients, blocks and entities
+    public void resetCounts() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = 0;
+        }
+        log.clear();
+    }
+}
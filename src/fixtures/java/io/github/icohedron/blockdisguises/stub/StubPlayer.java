@@ -0,0 +1,101 @@
+package io.github.icohedron.blockdisguises.stub;
+
+import com.flowpowered.math.vector.Vector3d;
+import org.spongepowered.api.data.value.mutable.Value;
+import org.spongepowered.api.entity.Transform;
+import org.spongepowered.api.entity.living.player.Player;
+import org.spongepowered.api.world.Location;
+import org.spongepowered.api.world.World;
+
+import java.util.Optional;
+import java.util.UUID;
+
+// Player stand-in with a mutable location that counts the messages it is sent
+// Block changes go through the RecordingPlatform instead of the player
+public class StubPlayer {
+
+    private final UUID uniqueId = UUID.randomUUID();
+    private final String name;
+    private final Player player;
+
+    private Location<World> location;
+    private int viewDistance = 10;
+    private boolean online = true;
+
+    // Outgoing messages, for asserting on or reporting
+    public long messages;
+
+    public StubPlayer(String name, Location<World> location) {
+        this.name = name;
+        this.location = location;
+
+        Value<?> gameMode = Stubs.stub(Value.class); // Does not exist, so the player is never killable
+        player = Stubs.stub(Player.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getUniqueId":
+                    return uniqueId;
+                case "getName":
+                    return this.name;
+                case "getLocation":
+                    return this.location;
+                case "getWorld":
+                    return this.location.getExtent();
+                case "getTransform":
+                    return new Transform<>(this.location);
+                case "getViewDistance":
+                    return viewDistance;
+                case "isOnline":
+                    return online;
+                case "getPlayer":
+                    return online ? Optional.of(player()) : Optional.empty();
+                case "sendMessage":
+                    messages++;
+                    return null;
+                case "gameMode":
+                    return gameMode;
+                default:
+                    return Stubs.DEFAULT;
+            }
+        });
+    }
+
+    private Player player() {
+        return player;
+    }
+
+    public Player getPlayer() {
+        return player;
+    }
+
+    public UUID getUniqueId() {
+        return uniqueId;
+    }
+
+    public Location<World> getLocation() {
+        return location;
+    }
+
+    public void setLocation(Location<World> location) {
+        this.location = location;
+    }
+
+    public void setPosition(double x, double y, double z) {
+        location = new Location<>(location.getExtent(), new Vector3d(x, y, z));
+    }
+
+    public void setViewDistance(int viewDistance) {
+        this.viewDistance = viewDistance;
+    }
+
+    public boolean isOnline() {
+        return online;
+    }
+
+    public void setOnline(boolean online) {
+        this.online = online;
+    }
+
+    public void resetCounters() {
+        messages = 0;
+    }
+}
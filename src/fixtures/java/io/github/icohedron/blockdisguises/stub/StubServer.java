@@ -0,0 +1,141 @@
+package io.github.icohedron.blockdisguises.stub;
+
+import io.github.icohedron.blockdisguises.BlockDisguises;
+import io.github.icohedron.blockdisguises.DisguiseConfig;
+import io.github.icohedron.blockdisguises.DisguiseManager;
+import io.github.icohedron.blockdisguises.platform.RecordingPlatform;
+import ninja.leaping.configurate.ConfigurationNode;
+import ninja.leaping.configurate.SimpleConfigurationNode;
+import org.spongepowered.api.Game;
+import org.spongepowered.api.Server;
+import org.spongepowered.api.Sponge;
+import org.spongepowered.api.block.BlockState;
+import org.spongepowered.api.block.BlockType;
+import org.spongepowered.api.data.key.Key;
+import org.spongepowered.api.service.ServiceManager;
+import org.spongepowered.api.world.Location;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+// Stand-in for the running server: installs a stub Game into Sponge and a BlockDisguises instance wired to it
+// Block changes and entities go through a RecordingPlatform, which counts them
+public class StubServer {
+
+    private final Map<UUID, StubPlayer> players = new HashMap<>();
+    private final Map<UUID, StubWorld> worlds = new HashMap<>();
+    private final RecordingPlatform platform = new RecordingPlatform();
+    private final DisguiseManager disguiseManager;
+
+    public StubServer() {
+        this(SimpleConfigurationNode.root());
+    }
+
+    public StubServer(ConfigurationNode config) {
+        Server server = Stubs.stub(Server.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getOnlinePlayers":
+                    return platform.getOnlinePlayers();
+                case "getPlayer":
+                    return args[0] instanceof UUID ? platform.getPlayer((UUID) args[0]) : Optional.empty();
+                case "getWorld":
+                    if (args[0] instanceof UUID) {
+                        StubWorld world = worlds.get(args[0]);
+                        return world == null ? Optional.empty() : Optional.of(world.getWorld());
+                    }
+                    return Optional.empty();
+                default:
+                    return Stubs.DEFAULT;
+            }
+        });
+        ServiceManager serviceManager = Stubs.stub(ServiceManager.class);
+        Game game = Stubs.stub(Game.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getServer":
+                    return server;
+                case "isServerAvailable":
+                    return true;
+                case "getServiceManager":
+                    return serviceManager;
+                default:
+                    return Stubs.DEFAULT;
+            }
+        });
+        Stubs.setField(Sponge.class, null, "game", game);
+
+        BlockDisguises.DISGUISE_OWNER = Stubs.stub(Key.class);
+        BlockDisguises plugin = new BlockDisguises();
+        plugin.onConstruct(null);
+        List<String> errors = new ArrayList<>();
+        DisguiseConfig disguiseConfig = DisguiseConfig.load(config, errors);
+        if (!errors.isEmpty()) {
+            throw new IllegalArgumentException("Invalid configuration: " + errors);
+        }
+        disguiseManager = new DisguiseManager(disguiseConfig, platform);
+        Stubs.setField(BlockDisguises.class, plugin, "disguiseManager", disguiseManager);
+    }
+
+    public StubWorld createWorld(String name) {
+        StubWorld world = new StubWorld(name);
+        worlds.put(world.getUniqueId(), world);
+        return world;
+    }
+
+    // Creates a player and brings them online
+    public StubPlayer createPlayer(String name, StubWorld world, double x, double y, double z) {
+        StubPlayer player = new StubPlayer(name, new Location<>(world.getWorld(), x, y, z));
+        players.put(player.getUniqueId(), player);
+        platform.addPlayer(player.getPlayer());
+        return player;
+    }
+
+    public void setOnline(StubPlayer player, boolean online) {
+        player.setOnline(online);
+        if (online) {
+            platform.addPlayer(player.getPlayer());
+        } else {
+            platform.removePlayer(player.getUniqueId());
+        }
+    }
+
+    public Collection<StubPlayer> getPlayers() {
+        return players.values();
+    }
+
+    public RecordingPlatform getPlatform() {
+        return platform;
+    }
+
+    public DisguiseManager getDisguiseManager() {
+        return disguiseManager;
+    }
+
+    // Block state stand-in that reports the given block type id, e.g. "minecraft:stone"
+    public static BlockState blockState(String id) {
+        BlockType type = Stubs.stub(BlockType.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getId":
+                case "getName":
+                    return id;
+                default:
+                    return Stubs.DEFAULT;
+            }
+        });
+        return Stubs.stub(BlockState.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getType":
+                    return type;
+                case "getId":
+                case "getName":
+                    return id;
+                default:
+                    return Stubs.DEFAULT;
+            }
+        });
+    }
+}
@@ -0,0 +1,33 @@
+package io.github.icohedron.blockdisguises.stub;
+
+import org.spongepowered.api.world.World;
+
+import java.util.UUID;
+
+// World stand-in that only has an identity. Blocks and entities are kept by the RecordingPlatform
+public class StubWorld {
+
+    private final UUID uniqueId = UUID.randomUUID();
+    private final World world;
+
+    public StubWorld(String name) {
+        world = Stubs.stub(World.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getUniqueId":
+                    return uniqueId;
+                case "getName":
+                    return name;
+                default:
+                    return Stubs.DEFAULT;
+            }
+        });
+    }
+
+    public World getWorld() {
+        return world;
+    }
+
+    public UUID getUniqueId() {
+        return uniqueId;
+    }
+}
@@ -0,0 +1,98 @@
+package io.github.icohedron.blockdisguises.stub;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+// Builds lightweight stand-ins for Sponge interfaces out of dynamic proxies
+// Methods without an answer return a neutral value (false, 0, empty optional or collection, null)
+public final class Stubs {
+
+    @FunctionalInterface
+    public interface Answer {
+        // Returns the result of the call, or Stubs.DEFAULT to fall back to a neutral value
+        Object answer(Method method, Object[] args) throws Throwable;
+    }
+
+    public static final Object DEFAULT = new Object();
+
+    private Stubs() {
+    }
+
+    public static <T> T stub(Class<T> type, Answer answer) {
+        Object proxy = Proxy.newProxyInstance(Stubs.class.getClassLoader(), new Class<?>[] {type}, (self, method, args) -> {
+            switch (method.getName()) {
+                case "equals":
+                    if (method.getParameterCount() == 1) {
+                        return self == args[0];
+                    }
+                    break;
+                case "hashCode":
+                    if (method.getParameterCount() == 0) {
+                        return System.identityHashCode(self);
+                    }
+                    break;
+                case "toString":
+                    if (method.getParameterCount() == 0) {
+                        return "Stub " + type.getSimpleName();
+                    }
+                    break;
+                default:
+                    break;
+            }
+
+            Object result = answer.answer(method, args);
+            return result == DEFAULT ? neutral(method.getReturnType()) : result;
+        });
+        return type.cast(proxy);
+    }
+
+    public static <T> T stub(Class<T> type) {
+        return stub(type, (method, args) -> DEFAULT);
+    }
+
+    private static Object neutral(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == double.class) {
+            return 0.0;
+        } else if (type == float.class) {
+            return 0.0f;
+        } else if (type == short.class) {
+            return (short) 0;
+        } else if (type == byte.class) {
+            return (byte) 0;
+        } else if (type == char.class) {
+            return (char) 0;
+        } else if (type == Optional.class) {
+            return Optional.empty();
+        } else if (type == List.class || type == java.util.Collection.class || type == Iterable.class) {
+            return Collections.emptyList();
+        } else if (type == Set.class) {
+            return Collections.emptySet();
+        } else if (type == Map.class) {
+            return Collections.emptyMap();
+        }
+        return null;
+    }
+
+    // Sets a (possibly private, possibly static) field, used to wire stand-ins into classes that expect injection
+    public static void setField(Class<?> owner, Object target, String name, Object value) {
+        try {
+            Field field = owner.getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Unable to set " + owner.getSimpleName() + "." + name, e);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package io.github.icohedron.blockdisguises;
+
+import io.github.icohedron.blockdisguises.stub.StubPlayer;
+import io.github.icohedron.blockdisguises.stub.StubServer;
+import io.github.icohedron.blockdisguises.stub.StubWorld;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.spongepowered.api.block.BlockState;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Cost of the per-tick block change broadcast with every disguise solid
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class BroadcastBenchmark {
+
+    @Param({"10", "100", "500"})
+    public int players;
+
+    @Param({"10", "100", "500"})
+    public int disguises;
+
+    private DisguiseManager disguiseManager;
+    private List<StubPlayer> viewers;
+
+    @Setup
+    public void setup() {
+        StubServer server = new StubServer();
+        StubWorld world = server.createWorld("arena");
+        BlockState blockState = StubServer.blockState("minecraft:stone");
+        Random random = new Random(0);
+
+        viewers = new ArrayList<>();
+        for (int i = 0; i < players; i++) {
+            viewers.add(server.createPlayer("viewer" + i, world, random.nextInt(512) - 256, 64, random.nextInt(512) - 256));
+        }
+
+        disguiseManager = server.getDisguiseManager();
+        for (int i = 0; i < disguises; i++) {
+            StubPlayer hider = server.createPlayer("hider" + i, world, random.nextInt(512) - 256, 64, random.nextInt(512) - 256);
+            disguiseManager.disguise(hider.getPlayer(), blockState);
+            disguiseManager.getDisguise(hider.getUniqueId()).setSolid();
+        }
+
+        disguiseManager.tick(); // Every viewer has now been sent everything in range
+    }
+
+    // Nothing changed since the last tick
+    @Benchmark
+    public void steadyStateTick() {
+        disguiseManager.tick();
+    }
+
+    // Every viewer is resynced from scratch, as after everyone (re)joined
+    @Benchmark
+    public void fullResync() {
+        for (StubPlayer viewer : viewers) {
+            disguiseManager.getBroadcaster().invalidate(viewer.getUniqueId());
+        }
+        for (StubPlayer viewer : viewers) {
+            disguiseManager.sendBlockChanges(viewer.getPlayer());
+        }
+        disguiseManager.getBroadcaster().flush();
+    }
+}
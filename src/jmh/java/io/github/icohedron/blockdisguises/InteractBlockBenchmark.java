@@ -0,0 +1,103 @@
+package io.github.icohedron.blockdisguises;
+
+import com.flowpowered.math.vector.Vector3i;
+import io.github.icohedron.blockdisguises.stub.StubPlayer;
+import io.github.icohedron.blockdisguises.stub.StubServer;
+import io.github.icohedron.blockdisguises.stub.StubWorld;
+import io.github.icohedron.blockdisguises.stub.Stubs;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.spongepowered.api.block.BlockSnapshot;
+import org.spongepowered.api.block.BlockState;
+import org.spongepowered.api.entity.living.player.Player;
+import org.spongepowered.api.event.block.InteractBlockEvent;
+import org.spongepowered.api.world.Location;
+import org.spongepowered.api.world.World;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+// Cost of a seeker clicking a block, both on a solid disguise and on an ordinary block
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class InteractBlockBenchmark {
+
+    @Param({"10", "100", "500"})
+    public int players;
+
+    @Param({"10", "100", "500"})
+    public int disguises;
+
+    private DisguiseListener listener;
+    private List<Player> seekers;
+    private InteractBlockEvent hitEvent;
+    private InteractBlockEvent missEvent;
+    private int next;
+
+    @Setup
+    public void setup() {
+        StubServer server = new StubServer();
+        StubWorld world = server.createWorld("arena");
+        BlockState blockState = StubServer.blockState("minecraft:stone");
+        DisguiseManager disguiseManager = server.getDisguiseManager();
+
+        // Hiders stand in a line, one block apart
+        for (int i = 0; i < disguises; i++) {
+            StubPlayer hider = server.createPlayer("hider" + i, world, i + 0.5, 64, 0.5);
+            disguiseManager.disguise(hider.getPlayer(), blockState);
+            disguiseManager.getDisguise(hider.getUniqueId()).setSolid();
+        }
+
+        seekers = new ArrayList<>();
+        for (int i = 0; i < players; i++) {
+            seekers.add(server.createPlayer("seeker" + i, world, 0.5, 64, 2.5).getPlayer());
+        }
+
+        listener = new DisguiseListener();
+        hitEvent = interactEvent(new Location<>(world.getWorld(), new Vector3i(disguises / 2, 64, 0)));
+        missEvent = interactEvent(new Location<>(world.getWorld(), new Vector3i(0, 64, 5)));
+    }
+
+    private static InteractBlockEvent interactEvent(Location<World> location) {
+        BlockSnapshot target = Stubs.stub(BlockSnapshot.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getLocation":
+                    return Optional.of(location);
+                case "getPosition":
+                    return location.getBlockPosition();
+                case "getWorldUniqueId":
+                    return location.getExtent().getUniqueId();
+                default:
+                    return Stubs.DEFAULT;
+            }
+        });
+        return Stubs.stub(InteractBlockEvent.class, (method, args) -> method.getName().equals("getTargetBlock") ? target : Stubs.DEFAULT);
+    }
+
+    private Player nextSeeker() {
+        next = next + 1 < seekers.size() ? next + 1 : 0;
+        return seekers.get(next);
+    }
+
+    @Benchmark
+    public void clickDisguise() {
+        listener.onInteractBlock(hitEvent, nextSeeker());
+    }
+
+    @Benchmark
+    public void clickOrdinaryBlock() {
+        listener.onInteractBlock(missEvent, nextSeeker());
+    }
+}
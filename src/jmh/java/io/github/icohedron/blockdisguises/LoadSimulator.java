@@ -0,0 +1,432 @@
+package io.github.icohedron.blockdisguises;
+
+import com.flowpowered.math.vector.Vector3d;
+import com.flowpowered.math.vector.Vector3i;
+import io.github.icohedron.blockdisguises.api.DisguiseState;
+import io.github.icohedron.blockdisguises.api.DisguiseView;
+import io.github.icohedron.blockdisguises.platform.RecordingPlatform.Operation;
+import io.github.icohedron.blockdisguises.platform.RecordingPlatform;
+import io.github.icohedron.blockdisguises.stub.StubPlayer;
+import io.github.icohedron.blockdisguises.stub.StubServer;
+import io.github.icohedron.blockdisguises.stub.StubWorld;
+import io.github.icohedron.blockdisguises.stub.Stubs;
+import ninja.leaping.configurate.ConfigurationNode;
+import ninja.leaping.configurate.SimpleConfigurationNode;
+import org.spongepowered.api.block.BlockSnapshot;
+import org.spongepowered.api.block.BlockState;
+import org.spongepowered.api.entity.Transform;
+import org.spongepowered.api.event.block.InteractBlockEvent;
+import org.spongepowered.api.event.entity.MoveEntityEvent;
+import org.spongepowered.api.event.network.ClientConnectionEvent;
+import org.spongepowered.api.world.Location;
+import org.spongepowered.api.world.World;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Random;
+
+// Drives players and disguises through scripted movement, interactions and join/leave churn for a fixed number of
+// ticks, and reports what the plugin cost per tick: CPU time, allocations, block packets and entity operations
+// Run with 'gradle simulate -Psimulate.args="players=200 disguises=100 ticks=2400 pattern=mixed"'
+public class LoadSimulator {
+
+    public enum Pattern {
+        IDLE, // Stands still, only looking around or shifting within the block now and then
+        WANDERING, // Walks around, changing direction every few seconds
+        SPRINTING, // Runs in straight lines, crossing a block every few ticks
+        TELEPORTING, // Walks, and every few seconds teleports somewhere else in the arena
+        MIXED // Every player gets one of the patterns above
+    }
+
+    private static final double WALK_SPEED = 0.216; // Blocks per tick
+    private static final double SPRINT_SPEED = 0.281;
+    private static final int TELEPORT_INTERVAL = 100; // Average ticks between teleports
+
+    // A simulated player and how they move
+    private static class SimPlayer {
+        private final StubPlayer stub;
+        private final Pattern pattern;
+        private final boolean hider;
+        private double heading; // Radians
+        private boolean online = true;
+
+        private SimPlayer(StubPlayer stub, Pattern pattern, boolean hider, double heading) {
+            this.stub = stub;
+            this.pattern = pattern;
+            this.hider = hider;
+            this.heading = heading;
+        }
+    }
+
+    // Options, given as key=value arguments
+    private int players = 100;
+    private int disguises = 50;
+    private int ticks = 1200;
+    private int warmupTicks = 200;
+    private Pattern pattern = Pattern.MIXED;
+    private int interactionsPerTick = 2;
+    private double churn = 0.002; // Chance per tick that an online player leaves, and that an offline player comes back
+    private int arena = 128; // Width of the arena, in blocks
+    private String renderMode = "entity";
+    private int broadcastRadius = 0;
+    private long seed = 1;
+
+    private final List<SimPlayer> simPlayers = new ArrayList<>();
+    private StubServer server;
+    private StubWorld world;
+    private RecordingPlatform platform;
+    private DisguiseManager disguiseManager;
+    private DisguiseListener listener;
+    private Random random;
+
+    // Events of the upcoming tick, built before the measured part of the tick
+    private final List<Runnable> tickActions = new ArrayList<>();
+
+    public static void main(String[] args) {
+        LoadSimulator simulator = new LoadSimulator();
+        simulator.parse(args);
+        simulator.setup();
+        simulator.run();
+    }
+
+    private void parse(String[] args) {
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            if (split < 0) {
+                throw new IllegalArgumentException("Expected key=value, got '" + arg + "'");
+            }
+
+            String key = arg.substring(0, split);
+            String value = arg.substring(split + 1);
+            switch (key) {
+                case "players":
+                    players = Integer.parseInt(value);
+                    break;
+                case "disguises":
+                    disguises = Integer.parseInt(value);
+                    break;
+                case "ticks":
+                    ticks = Integer.parseInt(value);
+                    break;
+                case "warmup":
+                    warmupTicks = Integer.parseInt(value);
+                    break;
+                case "pattern":
+                    pattern = Pattern.valueOf(value.toUpperCase(Locale.ROOT));
+                    break;
+                case "interactions":
+                    interactionsPerTick = Integer.parseInt(value);
+                    break;
+                case "churn":
+                    churn = Double.parseDouble(value);
+                    break;
+                case "arena":
+                    arena = Integer.parseInt(value);
+                    break;
+                case "render":
+                    renderMode = value;
+                    break;
+                case "radius":
+                    broadcastRadius = Integer.parseInt(value);
+                    break;
+                case "seed":
+                    seed = Long.parseLong(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option '" + key + "'");
+            }
+        }
+
+        if (ticks <= 0) {
+            throw new IllegalArgumentException("At least one tick has to be measured");
+        }
+
+        if (disguises > players) {
+            throw new IllegalArgumentException("Cannot disguise " + disguises + " of " + players + " players");
+        }
+    }
+
+    private void setup() {
+        ConfigurationNode config = SimpleConfigurationNode.root();
+        config.getNode("mobile_render_mode").setValue(renderMode);
+        config.getNode("broadcast_radius").setValue(broadcastRadius);
+
+        random = new Random(seed);
+        server = new StubServer(config);
+        world = server.createWorld("arena");
+        platform = server.getPlatform();
+        disguiseManager = server.getDisguiseManager();
+        listener = new DisguiseListener();
+
+        BlockState blockState = StubServer.blockState("minecraft:planks");
+        Pattern[] patterns = {Pattern.IDLE, Pattern.WANDERING, Pattern.SPRINTING, Pattern.TELEPORTING};
+        for (int i = 0; i < players; i++) {
+            boolean hider = i < disguises;
+            StubPlayer stub = server.createPlayer((hider ? "hider" : "seeker") + i, world,
+                    randomCoordinate() + 0.5, 64, randomCoordinate() + 0.5);
+            Pattern playerPattern = pattern == Pattern.MIXED ? patterns[random.nextInt(patterns.length)] : pattern;
+            simPlayers.add(new SimPlayer(stub, playerPattern, hider, random.nextDouble() * Math.PI * 2));
+
+            if (hider) {
+                disguiseManager.disguise(stub.getPlayer(), blockState);
+            }
+        }
+    }
+
+    private void run() {
+        long[] nanos = new long[ticks];
+        long[] allocated = new long[ticks];
+        long[] packets = new long[ticks];
+        long[] entityOps = new long[ticks];
+
+        com.sun.management.ThreadMXBean threads = allocationCounter();
+        long thread = Thread.currentThread().getId();
+
+        for (int tick = -warmupTicks; tick < ticks; tick++) {
+            prepareTick();
+            platform.resetCounts();
+
+            long allocatedBefore = threads == null ? 0 : threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+
+            for (Runnable action : tickActions) {
+                action.run();
+            }
+            disguiseManager.tick();
+
+            long elapsed = System.nanoTime() - start;
+            long allocatedAfter = threads == null ? 0 : threads.getThreadAllocatedBytes(thread);
+
+            if (tick >= 0) {
+                nanos[tick] = elapsed;
+                allocated[tick] = allocatedAfter - allocatedBefore;
+                packets[tick] = platform.getCount(Operation.BLOCK_CHANGE) + platform.getCount(Operation.BLOCK_RESET);
+                entityOps[tick] = platform.getCount(Operation.ENTITY_SPAWN) + platform.getCount(Operation.ENTITY_MOUNT)
+                        + platform.getCount(Operation.ENTITY_TELEPORT) + platform.getCount(Operation.ENTITY_VANISH)
+                        + platform.getCount(Operation.ENTITY_SHOW) + platform.getCount(Operation.ENTITY_RETAG) + platform.getCount(Operation.ENTITY_REMOVE);
+            }
+        }
+
+        report(nanos, threads == null ? null : allocated, packets, entityOps);
+    }
+
+    // Builds this tick's moves, interactions, joins and leaves. None of this is measured
+    private void prepareTick() {
+        tickActions.clear();
+
+        for (SimPlayer simPlayer : simPlayers) {
+            if (!simPlayer.online) {
+                if (random.nextDouble() < churn) {
+                    prepareJoin(simPlayer);
+                }
+                continue;
+            }
+
+            if (random.nextDouble() < churn) {
+                prepareLeave(simPlayer);
+                continue;
+            }
+
+            prepareMove(simPlayer);
+        }
+
+        List<SimPlayer> seekers = new ArrayList<>();
+        for (SimPlayer simPlayer : simPlayers) {
+            if (simPlayer.online && !simPlayer.hider) {
+                seekers.add(simPlayer);
+            }
+        }
+
+        List<DisguiseView> views = new ArrayList<>(disguiseManager.getViews().values());
+        for (int i = 0; i < interactionsPerTick && !seekers.isEmpty(); i++) {
+            SimPlayer seeker = seekers.get(random.nextInt(seekers.size()));
+
+            // Half of the clicks are aimed at a disguise, the rest at an ordinary block
+            Vector3i target;
+            if (!views.isEmpty() && random.nextBoolean()) {
+                DisguiseView view = views.get(random.nextInt(views.size()));
+                target = new Vector3i(view.getBlockX(), view.getBlockY(), view.getBlockZ());
+            } else {
+                target = new Vector3i(randomCoordinate(), 64, randomCoordinate());
+            }
+
+            InteractBlockEvent event = interactEvent(new Location<>(world.getWorld(), target));
+            tickActions.add(() -> listener.onInteractBlock(event, seeker.stub.getPlayer()));
+        }
+    }
+
+    private void prepareMove(SimPlayer simPlayer) {
+        Location<World> from = simPlayer.stub.getLocation();
+        Vector3d position = from.getPosition();
+        Vector3d next;
+
+        switch (simPlayer.pattern) {
+            case IDLE:
+                if (random.nextInt(20) != 0) {
+                    return; // Most ticks an idle player sends no move at all
+                }
+                next = position.add((random.nextDouble() - 0.5) * 0.1, 0, (random.nextDouble() - 0.5) * 0.1);
+                break;
+            case WANDERING:
+                if (random.nextInt(60) == 0) {
+                    simPlayer.heading = random.nextDouble() * Math.PI * 2;
+                }
+                next = step(position, simPlayer, WALK_SPEED);
+                break;
+            case SPRINTING:
+                next = step(position, simPlayer, SPRINT_SPEED);
+                break;
+            case TELEPORTING:
+                if (random.nextInt(TELEPORT_INTERVAL) == 0) {
+                    next = new Vector3d(randomCoordinate() + 0.5, 64, randomCoordinate() + 0.5);
+                } else {
+                    next = step(position, simPlayer, WALK_SPEED);
+                }
+                break;
+            default:
+                throw new IllegalStateException("Players never have the " + simPlayer.pattern + " pattern");
+        }
+
+        Location<World> to = new Location<>(from.getExtent(), next);
+        MoveEntityEvent event = moveEvent(from, to);
+        tickActions.add(() -> {
+            simPlayer.stub.setLocation(to);
+            listener.onMoveEvent(event, simPlayer.stub.getPlayer());
+        });
+    }
+
+    // Moves along the heading, turning around at the edge of the arena
+    private Vector3d step(Vector3d position, SimPlayer simPlayer, double speed) {
+        double x = position.getX() + Math.cos(simPlayer.heading) * speed;
+        double z = position.getZ() + Math.sin(simPlayer.heading) * speed;
+        double half = arena / 2.0;
+        if (x < -half || x > half || z < -half || z > half) {
+            simPlayer.heading += Math.PI;
+            return position;
+        }
+        return new Vector3d(x, position.getY(), z);
+    }
+
+    private void prepareJoin(SimPlayer simPlayer) {
+        ClientConnectionEvent.Join event = Stubs.stub(ClientConnectionEvent.Join.class);
+        simPlayer.online = true;
+        tickActions.add(() -> {
+            server.setOnline(simPlayer.stub, true);
+            listener.onClientJoin(event, simPlayer.stub.getPlayer());
+        });
+    }
+
+    private void prepareLeave(SimPlayer simPlayer) {
+        ClientConnectionEvent.Disconnect event = Stubs.stub(ClientConnectionEvent.Disconnect.class);
+        simPlayer.online = false;
+        tickActions.add(() -> {
+            listener.onClientDisconnect(event, simPlayer.stub.getPlayer());
+            server.setOnline(simPlayer.stub, false);
+        });
+    }
+
+    private int randomCoordinate() {
+        return random.nextInt(arena) - arena / 2;
+    }
+
+    private static MoveEntityEvent moveEvent(Location<World> from, Location<World> to) {
+        Transform<World> fromTransform = new Transform<>(from);
+        Transform<World> toTransform = new Transform<>(to);
+        return Stubs.stub(MoveEntityEvent.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getFromTransform":
+                    return fromTransform;
+                case "getToTransform":
+                    return toTransform;
+                default:
+                    return Stubs.DEFAULT;
+            }
+        });
+    }
+
+    private static InteractBlockEvent interactEvent(Location<World> location) {
+        BlockSnapshot target = Stubs.stub(BlockSnapshot.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getLocation":
+                    return Optional.of(location);
+                case "getPosition":
+                    return location.getBlockPosition();
+                case "getWorldUniqueId":
+                    return location.getExtent().getUniqueId();
+                default:
+                    return Stubs.DEFAULT;
+            }
+        });
+        return Stubs.stub(InteractBlockEvent.class, (method, args) -> method.getName().equals("getTargetBlock") ? target : Stubs.DEFAULT);
+    }
+
+    // Per-thread allocation counter of HotSpot JVMs, or null if this JVM does not have one
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        return threads;
+    }
+
+    private void report(long[] nanos, long[] allocated, long[] packets, long[] entityOps) {
+        System.out.println();
+        System.out.printf(Locale.ROOT, "%d players, %d disguises, %s movement, %d interactions/tick, %.4f churn, %dx%d arena, %s rendering, seed %d%n",
+                players, disguises, pattern.name().toLowerCase(Locale.ROOT), interactionsPerTick, churn, arena, arena, renderMode, seed);
+        System.out.printf(Locale.ROOT, "%d ticks measured after %d warmup ticks%n%n", ticks, warmupTicks);
+
+        System.out.printf(Locale.ROOT, "%-18s %10s %10s %10s %10s %10s%n", "", "mean", "p50", "p95", "p99", "max");
+        printRow("ms/tick", nanos, 1e-6);
+        if (allocated != null) {
+            printRow("KiB allocated/tick", allocated, 1.0 / 1024);
+        } else {
+            System.out.printf(Locale.ROOT, "%-18s %10s%n", "KiB allocated/tick", "n/a");
+        }
+        printRow("packets/tick", packets, 1);
+        printRow("entity ops/tick", entityOps, 1);
+
+        System.out.println();
+        System.out.printf(Locale.ROOT, "Live entities at the end: %d (%d visible)%n", platform.getEntityCount(), platform.getVisibleEntityCount());
+        System.out.printf(Locale.ROOT, "Disguises at the end: %d, of which solid: %d%n", disguiseManager.numDisguised(), countSolid());
+    }
+
+    private int countSolid() {
+        int solid = 0;
+        for (DisguiseView view : disguiseManager.getViews().values()) {
+            if (view.getState() == DisguiseState.SOLID) {
+                solid++;
+            }
+        }
+        return solid;
+    }
+
+    private static void printRow(String name, long[] values, double scale) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+
+        double sum = 0;
+        for (long value : values) {
+            sum += value;
+        }
+
+        System.out.printf(Locale.ROOT, "%-18s %10.3f %10.3f %10.3f %10.3f %10.3f%n", name,
+                sum / values.length * scale,
+                percentile(sorted, 0.50) * scale,
+                percentile(sorted, 0.95) * scale,
+                percentile(sorted, 0.99) * scale,
+                sorted[sorted.length - 1] * scale);
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(percentile * sorted.length) - 1)];
+    }
+}
@@ -0,0 +1,138 @@
+package io.github.icohedron.blockdisguises;
+
+import com.flowpowered.math.vector.Vector3d;
+import io.github.icohedron.blockdisguises.stub.StubPlayer;
+import io.github.icohedron.blockdisguises.stub.StubServer;
+import io.github.icohedron.blockdisguises.stub.StubWorld;
+import io.github.icohedron.blockdisguises.stub.Stubs;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.spongepowered.api.block.BlockState;
+import org.spongepowered.api.entity.Transform;
+import org.spongepowered.api.entity.living.player.Player;
+import org.spongepowered.api.event.entity.MoveEntityEvent;
+import org.spongepowered.api.world.World;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Cost of handling move events of mobile disguises (and of players that are not disguised)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MoveBenchmark {
+
+    @Param({"10", "100", "500"})
+    public int players;
+
+    @Param({"10", "100", "500"})
+    public int disguises;
+
+    private DisguiseManager disguiseManager;
+    private DisguiseListener listener;
+
+    private List<Player> hiders;
+    private List<Player> seekers;
+
+    // Events moving back and forth within a block, and back and forth across a block boundary
+    // Disguises remember their last block and where they came to rest, so a repeated event would only be a move once
+    private MoveEntityEvent[] withinBlock;
+    private MoveEntityEvent[] acrossBlock;
+
+    private boolean[] hiderAcross; // Which of the two across events each hider gets next
+    private boolean[] hiderWithin; // Which of the two within events each hider gets next
+    private boolean allAcross; // Which of the two across events all hiders get next in hidersMoveThenTick
+
+    private int next;
+
+    @Setup
+    public void setup() {
+        StubServer server = new StubServer();
+        StubWorld world = server.createWorld("arena");
+        BlockState blockState = StubServer.blockState("minecraft:stone");
+
+        disguiseManager = server.getDisguiseManager();
+        listener = new DisguiseListener();
+
+        hiders = new ArrayList<>();
+        for (int i = 0; i < disguises; i++) {
+            StubPlayer hider = server.createPlayer("hider" + i, world, 0.5, 64, 0.5);
+            disguiseManager.disguise(hider.getPlayer(), blockState);
+            hiders.add(hider.getPlayer());
+        }
+
+        seekers = new ArrayList<>();
+        for (int i = 0; i < players; i++) {
+            seekers.add(server.createPlayer("seeker" + i, world, 0.5, 64, 0.5).getPlayer());
+        }
+
+        Vector3d start = new Vector3d(0.5, 64, 0.5);
+        Vector3d nearby = new Vector3d(0.6, 64, 0.5);
+        Vector3d nextBlock = new Vector3d(1.5, 64, 0.5);
+        withinBlock = new MoveEntityEvent[] {moveEvent(world.getWorld(), start, nearby), moveEvent(world.getWorld(), nearby, start)};
+        acrossBlock = new MoveEntityEvent[] {moveEvent(world.getWorld(), start, nextBlock), moveEvent(world.getWorld(), nextBlock, start)};
+        hiderAcross = new boolean[disguises];
+        hiderWithin = new boolean[disguises];
+    }
+
+    private static MoveEntityEvent moveEvent(World world, Vector3d from, Vector3d to) {
+        Transform<World> fromTransform = new Transform<>(world, from);
+        Transform<World> toTransform = new Transform<>(world, to);
+        return Stubs.stub(MoveEntityEvent.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getFromTransform":
+                    return fromTransform;
+                case "getToTransform":
+                    return toTransform;
+                default:
+                    return Stubs.DEFAULT;
+            }
+        });
+    }
+
+    private Player nextHider() {
+        next = next + 1 < hiders.size() ? next + 1 : 0;
+        return hiders.get(next);
+    }
+
+    @Benchmark
+    public void hiderMovesWithinBlock() {
+        Player hider = nextHider();
+        hiderWithin[next] = !hiderWithin[next];
+        listener.onMoveEvent(withinBlock[hiderWithin[next] ? 0 : 1], hider);
+    }
+
+    @Benchmark
+    public void hiderMovesAcrossBlock() {
+        Player hider = nextHider();
+        hiderAcross[next] = !hiderAcross[next];
+        listener.onMoveEvent(acrossBlock[hiderAcross[next] ? 0 : 1], hider);
+    }
+
+    @Benchmark
+    public void seekerMoves() {
+        next = next + 1 < seekers.size() ? next + 1 : 0;
+        listener.onMoveEvent(acrossBlock[0], seekers.get(next));
+    }
+
+    // Per-tick work that follows the move events: armor stand teleports and countdowns
+    @Benchmark
+    public void hidersMoveThenTick() {
+        allAcross = !allAcross;
+        MoveEntityEvent event = acrossBlock[allAcross ? 0 : 1];
+        for (Player hider : hiders) {
+            listener.onMoveEvent(event, hider);
+        }
+        disguiseManager.tick();
+    }
+}
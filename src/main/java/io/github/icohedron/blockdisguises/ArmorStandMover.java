@@ -0,0 +1,37 @@
+package io.github.icohedron.blockdisguises;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Buffers the latest position of every moving disguise during a tick and moves each rendering once per tick
+// With the entity renderer that is one armor stand teleport per moving disguise, however often its owner moved
+public class ArmorStandMover {
+
+    private List<Disguise> queued = new ArrayList<>(); // Disguises with a pending rendering move
+    private List<Disguise> processing = new ArrayList<>(); // Swapped with queued while moves are applied
+
+    // Called for every move of a mobile disguise. Only the latest position is kept
+    public void queue(Disguise disguise) {
+        if (!disguise.armorStandMoveQueued) {
+            disguise.armorStandMoveQueued = true;
+            queued.add(disguise);
+        }
+    }
+
+    public void tick() {
+        if (queued.isEmpty()) {
+            return;
+        }
+
+        List<Disguise> toApply = queued;
+        queued = processing;
+        processing = toApply;
+
+        for (Disguise disguise : toApply) {
+            disguise.armorStandMoveQueued = false;
+            disguise.applyArmorStandMove();
+        }
+
+        toApply.clear();
+    }
+}
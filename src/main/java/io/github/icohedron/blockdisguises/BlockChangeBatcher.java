@@ -0,0 +1,134 @@
+package io.github.icohedron.blockdisguises;
+
+import io.github.icohedron.blockdisguises.platform.Platform;
+import org.spongepowered.api.block.BlockState;
+import org.spongepowered.api.entity.living.player.Player;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+
+// Collects the block changes and resets going out to each player during a tick and flushes them once, grouped by chunk section
+// Queuing the same block twice in one tick only sends the last change
+// Urgent resets, e.g. of a hider that just moved, have their own lane that is flushed ahead of routine changes
+public class BlockChangeBatcher {
+
+    // Block changes pending for a single player
+    private static class PendingChanges {
+        private Player player;
+        private final Map<Long, Map<Long, BlockState>> sections = new HashMap<>(); // <Section key, <Block key, Block state or null to reset>>
+    }
+
+    private final Map<UUID, PendingChanges> urgent = new HashMap<>(); // <Player UUID, Pending urgent resets>
+    private final Map<UUID, PendingChanges> routine = new HashMap<>(); // <Player UUID, Pending routine changes>
+    private int routineCount; // Blocks pending in the routine lane
+    private final DisguiseMetrics metrics;
+    private final Platform platform;
+
+    public BlockChangeBatcher(DisguiseMetrics metrics, Platform platform) {
+        this.metrics = metrics;
+        this.platform = platform;
+    }
+
+    public void queueChange(Player player, int x, int y, int z, BlockState blockState) {
+        queue(routine, player, x, y, z, blockState);
+    }
+
+    public void queueReset(Player player, int x, int y, int z) {
+        queue(routine, player, x, y, z, null);
+    }
+
+    // Queue a reset that goes out before any routine change, even when the broadcast budget is used up
+    public void queueUrgentReset(Player player, int x, int y, int z) {
+        // A routine change of the same block would otherwise be sent after the reset and bring the block back
+        PendingChanges changes = routine.get(player.getUniqueId());
+        if (changes != null) {
+            Map<Long, BlockState> section = changes.sections.get(BlockKeys.pack(x >> 4, y >> 4, z >> 4));
+            long key = BlockKeys.pack(x, y, z);
+            if (section != null && section.containsKey(key)) {
+                section.remove(key);
+                routineCount--;
+            }
+        }
+
+        queue(urgent, player, x, y, z, null);
+    }
+
+    private void queue(Map<UUID, PendingChanges> lane, Player player, int x, int y, int z, BlockState blockState) {
+        PendingChanges changes = lane.computeIfAbsent(player.getUniqueId(), p -> new PendingChanges());
+        changes.player = player;
+
+        Map<Long, BlockState> section = changes.sections.computeIfAbsent(BlockKeys.pack(x >> 4, y >> 4, z >> 4), s -> new HashMap<>());
+        long key = BlockKeys.pack(x, y, z);
+        if (!section.containsKey(key) && lane == routine) {
+            routineCount++;
+        }
+        section.put(key, blockState); // Resets are stored as null
+    }
+
+    // Send every pending change, urgent resets first
+    public int flush() {
+        int sent = flush(urgent);
+        sent += flush(routine);
+        routineCount = 0;
+        return sent;
+    }
+
+    // Send only the urgent resets
+    public int flushUrgent() {
+        return flush(urgent);
+    }
+
+    // Blocks waiting in the routine lane, which the next flush will send
+    public int getRoutineCount() {
+        return routineCount;
+    }
+
+    // The Sponge API only exposes single block updates, so each section goes out block by block
+    private int flush(Map<UUID, PendingChanges> lane) {
+        int sent = 0;
+
+        Iterator<PendingChanges> iterator = lane.values().iterator();
+        while (iterator.hasNext()) {
+            PendingChanges changes = iterator.next();
+            if (changes.sections.isEmpty()) {
+                iterator.remove(); // Player had nothing queued since the last flush
+                continue;
+            }
+
+            Player player = changes.player;
+            if (player.isOnline()) {
+                for (Map<Long, BlockState> section : changes.sections.values()) {
+                    for (Map.Entry<Long, BlockState> block : section.entrySet()) {
+                        long key = block.getKey();
+                        if (block.getValue() == null) {
+                            platform.resetBlockChange(player, BlockKeys.unpackX(key), BlockKeys.unpackY(key), BlockKeys.unpackZ(key));
+                            metrics.increment(DisguiseMetrics.Counter.BLOCK_RESETS);
+                        } else {
+                            platform.sendBlockChange(player, BlockKeys.unpackX(key), BlockKeys.unpackY(key), BlockKeys.unpackZ(key), block.getValue());
+                            metrics.increment(DisguiseMetrics.Counter.BLOCK_CHANGES);
+                        }
+                        sent++;
+                    }
+                }
+            }
+
+            changes.sections.clear();
+            changes.player = null;
+        }
+
+        return sent;
+    }
+
+    // Drop anything still queued for a player that left
+    public void discard(UUID player) {
+        urgent.remove(player);
+        PendingChanges changes = routine.remove(player);
+        if (changes != null) {
+            for (Map<Long, BlockState> section : changes.sections.values()) {
+                routineCount -= section.size();
+            }
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package io.github.icohedron.blockdisguises;
+
+import org.spongepowered.api.entity.living.player.Player;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+
+// Sends solid disguise blocks, and the fake blocks of virtually rendered mobile disguises, to the players that can see them
+// Viewers are grouped into their world's shard once per tick and only receive disguises within their chunk radius
+// Every viewer remembers which disguise blocks its client already has, so packets only go out when something changed
+// Viewers are synced round-robin within a per-tick packet and time budget. A viewer the budget runs out on, even partway through,
+// is continued first on the next tick
+public class BlockChangeBroadcaster {
+
+    // What a single client currently has been sent
+    private static class ViewerState {
+        private UUID world; // World the sent blocks belong to
+        private long chunk; // Chunk key of the chunk the viewer was in on the last tick
+        private final Map<Long, Disguise> sent = new HashMap<>(); // <Block key, Disguise whose block the client has>
+        private boolean queued; // Whether the viewer is in the sync queue
+        private Player player; // The viewer as of the last tick it was online
+        private WorldShard shard; // Shard of the world the viewer was in on the last tick it was online
+        private long seenTick; // Last tick the viewer was online
+    }
+
+    private final DisguiseManager disguiseManager;
+    private final BlockChangeBatcher batcher; // Everything sent to clients goes through here
+
+    // <Player UUID, What that player's client has been sent>
+    private final Map<UUID, ViewerState> viewers = new HashMap<>();
+
+    // Viewers in the order they are synced in. Synced viewers go to the back, joining viewers are added at the back
+    private final Deque<UUID> syncQueue = new ArrayDeque<>();
+    private long currentTick;
+
+    // Budget of the tick in progress, checked while syncing
+    private long tickStart;
+    private int packetBudget; // 0 for no limit
+    private long timeBudget; // In nanoseconds, 0 for no limit
+    private int urgentSent; // Urgent resets flushed at the start of the tick
+
+    public BlockChangeBroadcaster(DisguiseManager disguiseManager) {
+        this.disguiseManager = disguiseManager;
+        this.batcher = new BlockChangeBatcher(disguiseManager.getMetrics(), disguiseManager.getPlatform());
+    }
+
+    public void tick() {
+        currentTick++;
+        tickStart = System.nanoTime();
+        packetBudget = disguiseManager.getConfig().getBroadcastPacketBudget();
+        timeBudget = (long) (disguiseManager.getConfig().getBroadcastTimeBudget() * 1_000_000);
+
+        // Urgent resets always go out, and come out of this tick's budget before any routine change
+        urgentSent = batcher.flushUrgent();
+
+        for (WorldShard shard : disguiseManager.getShards()) {
+            shard.getViewers().clear();
+        }
+
+        for (Player player : disguiseManager.getPlatform().getOnlinePlayers()) {
+            WorldShard shard = disguiseManager.getOrCreateShard(player.getWorld().getUniqueId());
+            shard.getViewers().add(player);
+
+            ViewerState viewerState = viewers.computeIfAbsent(player.getUniqueId(), v -> new ViewerState());
+            viewerState.player = player;
+            viewerState.shard = shard;
+            viewerState.seenTick = currentTick;
+            if (!viewerState.queued) {
+                viewerState.queued = true;
+                syncQueue.addLast(player.getUniqueId());
+            }
+
+            // Done every tick, not only on sync, since a viewer may be left waiting by the budget for a while
+            forgetUnloadedChunks(player, viewerState);
+        }
+
+        // Every viewer is taken from the front at most once per tick
+        int remaining = syncQueue.size();
+        boolean synced = false;
+        while (remaining > 0) {
+            UUID uuid = syncQueue.peekFirst();
+            ViewerState viewerState = viewers.get(uuid);
+            if (viewerState == null || viewerState.seenTick != currentTick) {
+                // No longer online. Queued again if seen later
+                syncQueue.pollFirst();
+                if (viewerState != null) {
+                    viewerState.queued = false;
+                }
+                remaining--;
+                continue;
+            }
+
+            if (synced && isOverBudget()) {
+                break; // The rest wait for the next tick, at the front of the line
+            }
+
+            synced = true;
+            if (!sync(viewerState.player, viewerState.shard, true)) {
+                break; // Ran out of budget partway through this viewer, who is continued first next tick
+            }
+            syncQueue.addLast(syncQueue.pollFirst());
+            remaining--;
+        }
+
+        int deferred = remaining;
+        if (deferred > 0) {
+            disguiseManager.getMetrics().add(DisguiseMetrics.Counter.DEFERRED_SYNCS, deferred);
+        }
+
+        int sent = urgentSent + flush();
+        if (sent > 0) {
+            BlockDisguises.debug(DebugChannel.BROADCAST, () -> "Sent " + sent + " block changes to " + viewers.size() + " tracked players"
+                    + (deferred > 0 ? ", " + deferred + " players left for the next tick" : ""));
+        }
+    }
+
+    // Send out every block change queued since the last flush
+    public int flush() {
+        return batcher.flush();
+    }
+
+    // Bring a single player's client up to date with every solid disguise within range, ignoring the budget
+    public void sendBlockChanges(Player viewer) {
+        sync(viewer, disguiseManager.getOrCreateShard(viewer.getWorld().getUniqueId()), false);
+    }
+
+    private boolean isOverBudget() {
+        return (packetBudget > 0 && urgentSent + batcher.getRoutineCount() >= packetBudget)
+                || (timeBudget > 0 && System.nanoTime() - tickStart >= timeBudget);
+    }
+
+    // Returns false if the budget ran out before the client was fully up to date
+    // Stopping partway is safe since sent holds exactly what the client has, so the next sync continues where this one stopped
+    private boolean sync(Player viewer, WorldShard shard, boolean budgeted) {
+        UUID world = shard.getWorld();
+        SolidDisguiseIndex solidIndex = shard.getSolidIndex();
+        SolidDisguiseIndex virtualIndex = shard.getVirtualIndex();
+
+        ViewerState viewerState = viewers.computeIfAbsent(viewer.getUniqueId(), v -> new ViewerState());
+        if (!world.equals(viewerState.world)) {
+            // The client threw away every block of its previous world
+            viewerState.sent.clear();
+            viewerState.world = world;
+        }
+
+        if (solidIndex.getChunks().isEmpty() && virtualIndex.getChunks().isEmpty() && viewerState.sent.isEmpty()) {
+            return true; // Nothing to send or take back
+        }
+
+        int radius = getChunkRadius(viewer);
+        int viewerChunkX = viewer.getLocation().getBlockX() >> 4;
+        int viewerChunkZ = viewer.getLocation().getBlockZ() >> 4;
+
+        // Take back blocks of disguises that moved, are no longer solid or went out of range
+        Iterator<Map.Entry<Long, Disguise>> sentIterator = viewerState.sent.entrySet().iterator();
+        while (sentIterator.hasNext()) {
+            Map.Entry<Long, Disguise> entry = sentIterator.next();
+            long key = entry.getKey();
+            int x = BlockKeys.unpackX(key);
+            int z = BlockKeys.unpackZ(key);
+
+            boolean inRange = Math.abs((x >> 4) - viewerChunkX) <= radius && Math.abs((z >> 4) - viewerChunkZ) <= radius;
+            if (inRange) {
+                // A solid disguise's block wins over a fake block in the same place
+                Disguise shown = solidIndex.get(x, BlockKeys.unpackY(key), z);
+                if (shown == null) {
+                    shown = virtualIndex.get(x, BlockKeys.unpackY(key), z);
+                }
+                if (shown == entry.getValue()) {
+                    continue; // Still accurate
+                }
+            }
+
+            // Chunks beyond the view distance have been unloaded by the client, so there is nothing to reset
+            if (Math.abs((x >> 4) - viewerChunkX) <= viewer.getViewDistance() && Math.abs((z >> 4) - viewerChunkZ) <= viewer.getViewDistance()) {
+                batcher.queueReset(viewer, x, BlockKeys.unpackY(key), z);
+            }
+            sentIterator.remove();
+
+            if (budgeted && packetBudget > 0 && urgentSent + batcher.getRoutineCount() >= packetBudget) {
+                return false; // E.g. a viewer leaving an arena full of disguises
+            }
+        }
+
+        // Send blocks of solid disguises the client does not have yet, then fake blocks that no solid disguise covers
+        return send(viewer, viewerState, solidIndex, null, radius, viewerChunkX, viewerChunkZ, budgeted)
+                && send(viewer, viewerState, virtualIndex, solidIndex, radius, viewerChunkX, viewerChunkZ, budgeted);
+    }
+
+    // Returns false if the budget ran out before every block of the index was sent
+    private boolean send(Player viewer, ViewerState viewerState, SolidDisguiseIndex index, SolidDisguiseIndex covering, int radius,
+                         int viewerChunkX, int viewerChunkZ, boolean budgeted) {
+        for (Map.Entry<Long, Map<Long, Disguise>> chunk : index.getChunks().entrySet()) {
+            long chunkKey = chunk.getKey();
+            if (Math.abs(BlockKeys.chunkX(chunkKey) - viewerChunkX) > radius || Math.abs(BlockKeys.chunkZ(chunkKey) - viewerChunkZ) > radius) {
+                continue; // Outside of the viewer's loaded chunks
+            }
+
+            for (Map.Entry<Long, Disguise> block : chunk.getValue().entrySet()) {
+                Disguise disguise = block.getValue();
+                if (viewerState.sent.get(block.getKey()) == disguise) {
+                    continue; // Client already has this block
+                }
+
+                long key = block.getKey();
+                if (covering != null && covering.get(BlockKeys.unpackX(key), BlockKeys.unpackY(key), BlockKeys.unpackZ(key)) != null) {
+                    continue; // Another block is shown here
+                }
+
+                if (disguise.sendBlockChange(viewer)) {
+                    viewerState.sent.put(block.getKey(), disguise);
+                }
+            }
+
+            if (budgeted && isOverBudget()) {
+                return false; // E.g. a viewer joining an arena full of disguises
+            }
+        }
+        return true;
+    }
+
+    // Take back a disguise block from every player that was sent it at the end of this tick
+    public void resetBlock(UUID world, int x, int y, int z) {
+        WorldShard shard = disguiseManager.getShard(world);
+        if (shard == null) {
+            return;
+        }
+
+        // Only players in the world can have been sent its blocks
+        long key = BlockKeys.pack(x, y, z);
+        for (Player viewer : shard.getViewers()) {
+            ViewerState viewerState = viewers.get(viewer.getUniqueId());
+            if (viewerState == null || !world.equals(viewerState.world) || viewerState.sent.remove(key) == null) {
+                continue; // This client never had the block
+            }
+
+            batcher.queueUrgentReset(viewer, x, y, z);
+        }
+    }
+
+    // The client unloads chunks that end up beyond its view distance, and its disguise blocks with them
+    // Those blocks are forgotten as the viewer moves away, so they are sent again once the viewer comes back
+    private void forgetUnloadedChunks(Player viewer, ViewerState viewerState) {
+        int viewerChunkX = viewer.getLocation().getBlockX() >> 4;
+        int viewerChunkZ = viewer.getLocation().getBlockZ() >> 4;
+        long chunk = BlockKeys.chunkKey(viewerChunkX, viewerChunkZ);
+        if (chunk == viewerState.chunk || viewerState.sent.isEmpty()) {
+            viewerState.chunk = chunk;
+            return; // Did not change chunks, or has nothing to forget
+        }
+        viewerState.chunk = chunk;
+
+        int viewDistance = viewer.getViewDistance();
+        Iterator<Long> iterator = viewerState.sent.keySet().iterator();
+        while (iterator.hasNext()) {
+            long key = iterator.next();
+            if (Math.abs((BlockKeys.unpackX(key) >> 4) - viewerChunkX) > viewDistance || Math.abs((BlockKeys.unpackZ(key) >> 4) - viewerChunkZ) > viewDistance) {
+                iterator.remove();
+            }
+        }
+    }
+
+    // Forget that a client has the given block and the blocks around it, so they are sent again on its next sync
+    // Used when the server may have overwritten them on the client, e.g. by correcting a block it clicked or placed against
+    public void forgetAround(UUID viewer, int x, int y, int z) {
+        ViewerState viewerState = viewers.get(viewer);
+        if (viewerState == null || viewerState.sent.isEmpty()) {
+            return;
+        }
+
+        viewerState.sent.remove(BlockKeys.pack(x, y, z));
+        viewerState.sent.remove(BlockKeys.pack(x + 1, y, z));
+        viewerState.sent.remove(BlockKeys.pack(x - 1, y, z));
+        viewerState.sent.remove(BlockKeys.pack(x, y + 1, z));
+        viewerState.sent.remove(BlockKeys.pack(x, y - 1, z));
+        viewerState.sent.remove(BlockKeys.pack(x, y, z + 1));
+        viewerState.sent.remove(BlockKeys.pack(x, y, z - 1));
+    }
+
+    // Forget everything a client has been sent, so it is fully resent on the next tick
+    // Used when the client has thrown away its blocks (joining, respawning)
+    public void invalidate(UUID viewer) {
+        ViewerState viewerState = viewers.get(viewer);
+        if (viewerState != null) {
+            viewerState.sent.clear();
+            viewerState.world = null;
+        }
+    }
+
+    public void removeViewer(UUID viewer) {
+        if (viewers.remove(viewer) != null) {
+            syncQueue.remove(viewer);
+        }
+        batcher.discard(viewer);
+    }
+
+    public BlockChangeBatcher getBatcher() {
+        return batcher;
+    }
+
+    // Radius, in chunks, around a viewer in which disguises are sent
+    public int getChunkRadius(Player viewer) {
+        int configured = disguiseManager.getBroadcastRadius();
+        int viewDistance = viewer.getViewDistance();
+        return configured > 0 ? Math.min(configured, viewDistance) : viewDistance;
+    }
+
+    // Whether the given block lies within a viewer's chunk radius
+    public boolean isInRange(Player viewer, int x, int z) {
+        int radius = getChunkRadius(viewer);
+        return Math.abs((x >> 4) - (viewer.getLocation().getBlockX() >> 4)) <= radius
+                && Math.abs((z >> 4) - (viewer.getLocation().getBlockZ() >> 4)) <= radius;
+    }
+}
@@ -1,8 +1,10 @@
 package io.github.icohedron.blockdisguises;
 
 import com.google.inject.Inject;
+import io.github.icohedron.blockdisguises.api.DisguiseService;
 import io.github.icohedron.blockdisguises.cmds.DisguiseCmd;
 import io.github.icohedron.blockdisguises.cmds.ListCmd;
+import io.github.icohedron.blockdisguises.cmds.StatsCmd;
 import io.github.icohedron.blockdisguises.cmds.UndisguiseAllCmd;
 import io.github.icohedron.blockdisguises.cmds.UndisguiseCmd;
 import io.github.icohedron.blockdisguises.data.DisguiseOwnerData;
@@ -16,6 +18,7 @@ import org.slf4j.Logger;
 import org.spongepowered.api.Sponge;
 import org.spongepowered.api.block.BlockType;
 import org.spongepowered.api.command.CommandResult;
+import org.spongepowered.api.command.CommandSource;
 import org.spongepowered.api.command.args.GenericArguments;
 import org.spongepowered.api.command.spec.CommandSpec;
 import org.spongepowered.api.config.ConfigDir;
@@ -39,16 +42,21 @@ import org.spongepowered.api.util.TypeTokens;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.function.Supplier;
 
 @Plugin(id = PluginInfo.ID, name = PluginInfo.NAME, version = PluginInfo.VERSION, description = PluginInfo.DESCRIPTION, authors = {"Icohedron"})
 public class BlockDisguises {
 
     // Future improvements:
-    // - Disguises persist over server restarts. May require additional custom data
     // - Turn off player collision with disguised players (and turn them invisible too if this works). May require additional custom data
     // - Let hiders see their own disguise when solidified. Requires Contextual data to be implemented in Sponge
 
@@ -57,25 +65,85 @@ public class BlockDisguises {
     private static final Text prefix = Text.of(TextColors.GRAY, "[", TextColors.GOLD, "BlockDisguise", TextColors.GRAY, "] ");
 
     private final String configFileName = "blockdisguises.conf";
+    private final String snapshotFileName = "blockdisguises.dat";
 
     @Inject @ConfigDir(sharedRoot = true) private Path configurationPath;
     @Inject private Logger logger;
     @Inject private PluginContainer container;
 
-    // Debug mode enabled players
-    private static Set<UUID> debug_mode_active = new HashSet(); // Set of players who enabled debug logs for themself
-    public static void sendDebugMessage(String msg) {
-        for (UUID uuid : debug_mode_active) {
-            Optional<Player> player = Sponge.getServer().getPlayer(uuid);
-            if (player.isPresent()) {
-                player.get().sendMessage(Text.of(getTextPrefix(), TextColors.RED, "[Debug] ", TextColors.WHITE, msg));
+    // Rate limiting state of a single debug channel
+    private static class DebugRateLimit {
+        private long windowStart;
+        private int sentInWindow;
+        private int suppressedInWindow;
+    }
+
+    // Debug state, like everything that sends debug messages, is only touched on the main thread
+    private static Map<UUID, Set<DebugChannel>> debug_mode_active = new HashMap<>(); // <Player UUID, Channels that player enabled debug logs for>
+    private static final Map<DebugChannel, DebugRateLimit> debugRateLimits = new EnumMap<>(DebugChannel.class);
+
+    // The message is only built if someone is listening on the channel, so callers can pass expensive messages freely
+    // Main thread only
+    public static void debug(DebugChannel channel, Supplier<String> msg) {
+        if (debug_mode_active.isEmpty()) {
+            return;
+        }
+
+        boolean listening = false;
+        for (Set<DebugChannel> channels : debug_mode_active.values()) {
+            if (channels.contains(channel)) {
+                listening = true;
+                break;
+            }
+        }
+        if (!listening) {
+            return;
+        }
+
+        int suppressed = acquireDebugMessage(channel);
+        if (suppressed < 0) {
+            return; // Rate limited
+        }
+
+        Text text = Text.of(getTextPrefix(), TextColors.RED, "[Debug/" + channel.name().toLowerCase() + "] ", TextColors.WHITE, msg.get(),
+                TextColors.GRAY, suppressed > 0 ? " (" + suppressed + " suppressed)" : "");
+        for (Map.Entry<UUID, Set<DebugChannel>> entry : debug_mode_active.entrySet()) {
+            if (entry.getValue().contains(channel)) {
+                Sponge.getServer().getPlayer(entry.getKey()).ifPresent(player -> player.sendMessage(text));
             }
         }
     }
 
+    // Returns -1 if a message may not be sent on the channel right now, otherwise the amount of messages suppressed since
+    // the last one was sent
+    private static int acquireDebugMessage(DebugChannel channel) {
+        int maxPerSecond = channel.getMaxPerSecond();
+        if (maxPerSecond == 0) {
+            return 0;
+        }
+
+        DebugRateLimit limit = debugRateLimits.computeIfAbsent(channel, c -> new DebugRateLimit());
+        long now = System.currentTimeMillis();
+        if (now - limit.windowStart >= 1000) {
+            limit.windowStart = now;
+            limit.sentInWindow = 0;
+        }
+
+        if (limit.sentInWindow >= maxPerSecond) {
+            limit.suppressedInWindow++;
+            return -1;
+        }
+
+        limit.sentInWindow++;
+        int suppressed = limit.suppressedInWindow;
+        limit.suppressedInWindow = 0;
+        return suppressed;
+    }
+
     // Configuration Variables
 
     private DisguiseManager disguiseManager;
+    private int reloadSequence; // Latest requested reload, so a slow reload never replaces the result of a newer one
 
     // Handy for having an instance of this plugin available from anywhere
     private static BlockDisguises instance;
@@ -108,17 +176,31 @@ public class BlockDisguises {
                 .manipulatorId("disguise_owner_data")
                 .buildAndRegister(this.container);
 
-        ConfigurationNode config = loadConfig();
+        List<String> errors = new ArrayList<>();
+        DisguiseConfig config = DisguiseConfig.load(loadConfig(errors), errors);
+        if (!errors.isEmpty()) {
+            logger.error("The configuration has " + errors.size() + " problem(s):");
+            for (String error : errors) {
+                logger.error(" - " + error);
+            }
+            logger.info("Falling back to internal defaults");
+            config = DisguiseConfig.DEFAULTS;
+        }
+
         disguiseManager = new DisguiseManager(config);
+        if (config.isPersistDisguises()) {
+            disguiseManager.enablePersistence(configurationPath.resolve(snapshotFileName));
+        }
+
+        Sponge.getServiceManager().setProvider(this, DisguiseService.class, new SimpleDisguiseService(disguiseManager));
 
         initializeCommands();
 
         Sponge.getEventManager().registerListeners(this, new DisguiseListener());
 
         Task.builder()
-            .execute(() ->
-                Sponge.getServer().getOnlinePlayers().forEach(player -> disguiseManager.sendBlockChanges(player))
-            ).intervalTicks(1).submit(this);
+            .execute(() -> disguiseManager.tick())
+            .intervalTicks(1).submit(this);
 
         logger.info("Finished initialization");
     }
@@ -128,7 +210,9 @@ public class BlockDisguises {
         CommandSpec disguise = CommandSpec.builder()
                 .description(Text.of("Disguise as a block"))
                 .permission(PluginInfo.ID + ".command.disguise")
-                .arguments( GenericArguments.onlyOne(GenericArguments.catalogedElement(Text.of("blocktype"), BlockType.class)),
+                .arguments( GenericArguments.onlyOne(GenericArguments.firstParsing(
+                                    GenericArguments.choices(Text.of("preset"), () -> disguiseManager.getPresets().keySet(), name -> disguiseManager.getPresets().get(name)),
+                                    GenericArguments.catalogedElement(Text.of("blocktype"), BlockType.class))),
                             GenericArguments.onlyOne(GenericArguments.playerOrSource(Text.of("player"))),
                             GenericArguments.flags().valueFlag(GenericArguments.string(Text.of("variant")), "-variant")
                                                     .valueFlag(GenericArguments.string(Text.of("facing")), "-facing")
@@ -154,21 +238,28 @@ public class BlockDisguises {
         CommandSpec undisguiseAll = CommandSpec.builder()
                 .description(Text.of("Undisguise all players"))
                 .permission(PluginInfo.ID + ".command.undisguiseall")
+                .arguments(GenericArguments.optional(GenericArguments.world(Text.of("world"))))
                 .executor(new UndisguiseAllCmd())
                 .build();
 
         CommandSpec list = CommandSpec.builder()
                 .description(Text.of("List all disguised players"))
                 .permission(PluginInfo.ID + ".command.list")
+                .arguments(GenericArguments.optional(GenericArguments.world(Text.of("world"))))
                 .executor(new ListCmd())
                 .build();
 
+        CommandSpec stats = CommandSpec.builder()
+                .description(Text.of("Show what BlockDisguises costs per tick"))
+                .permission(PluginInfo.ID + ".command.stats")
+                .executor(new StatsCmd())
+                .build();
+
         CommandSpec reload = CommandSpec.builder()
                 .description(Text.of("Reload the configuration"))
                 .permission(PluginInfo.ID + ".command.reload")
                 .executor((src, args) -> {
-                    onReload(null);
-                    src.sendMessage(Text.of(prefix, TextColors.YELLOW, "Reloaded configuration"));
+                    reloadConfig(src); // Reports back once the configuration has been read
                     return CommandResult.success();
                 })
                 .build();
@@ -176,17 +267,34 @@ public class BlockDisguises {
         CommandSpec debug = CommandSpec.builder()
                 .description(Text.of("Enable debug messages for yourself"))
                 .permission(PluginInfo.ID + ".command.debug")
+                .arguments(GenericArguments.optional(GenericArguments.enumValue(Text.of("channel"), DebugChannel.class)))
                 .executor((src, args) -> {
                     if (!(src instanceof Player)) {
                         src.sendMessage(Text.of("You may only run this command as a player"));
+                        return CommandResult.empty();
                     }
                     UUID uuid = ((Player) src).getUniqueId();
-                    if (debug_mode_active.contains(uuid)) {
-                        debug_mode_active.remove(uuid);
-                        src.sendMessage(Text.of(prefix, TextColors.YELLOW, "Disabled debug messages for yourself"));
+                    Optional<DebugChannel> channel = args.getOne("channel");
+                    Set<DebugChannel> channels = debug_mode_active.computeIfAbsent(uuid, u -> EnumSet.noneOf(DebugChannel.class));
+
+                    if (!channel.isPresent()) {
+                        // Toggle every channel at once
+                        if (channels.isEmpty()) {
+                            channels.addAll(EnumSet.allOf(DebugChannel.class));
+                            src.sendMessage(Text.of(prefix, TextColors.YELLOW, "Enabled debug messages for yourself"));
+                        } else {
+                            channels.clear();
+                            src.sendMessage(Text.of(prefix, TextColors.YELLOW, "Disabled debug messages for yourself"));
+                        }
+                    } else if (channels.remove(channel.get())) {
+                        src.sendMessage(Text.of(prefix, TextColors.YELLOW, "Disabled " + channel.get().name().toLowerCase() + " debug messages for yourself"));
                     } else {
-                        debug_mode_active.add(uuid);
-                        src.sendMessage(Text.of(prefix, TextColors.YELLOW, "Enabled debug messages for yourself"));
+                        channels.add(channel.get());
+                        src.sendMessage(Text.of(prefix, TextColors.YELLOW, "Enabled " + channel.get().name().toLowerCase() + " debug messages for yourself"));
+                    }
+
+                    if (channels.isEmpty()) {
+                        debug_mode_active.remove(uuid);
                     }
                     return CommandResult.success();
                 })
@@ -198,6 +306,7 @@ public class BlockDisguises {
                 .child(undisguise, "undisguise")
                 .child(undisguiseAll, "undisguiseall")
                 .child(list, "list")
+                .child(stats, "stats")
                 .child(reload, "reload")
                 .child(debug, "debug")
                 .build();
@@ -205,7 +314,8 @@ public class BlockDisguises {
         Sponge.getCommandManager().register(this, blockdisguises, "bd");
     }
 
-    private ConfigurationNode loadConfig() {
+    // Reads the configuration file. Problems reading it are added to errors
+    private ConfigurationNode loadConfig(List<String> errors) {
         File configFile = new File(configurationPath.toFile(), configFileName);
         ConfigurationLoader<CommentedConfigurationNode> configurationLoader = HoconConfigurationLoader.builder().setFile(configFile).build();
         ConfigurationNode rootNode = null;
@@ -225,9 +335,7 @@ public class BlockDisguises {
         try {
             rootNode = configurationLoader.load();
         } catch (IOException e) {
-            logger.error("An error has occurred while reading the configuration file: ");
-            e.printStackTrace();
-            logger.info("Falling back to internal defaults");
+            errors.add("Could not read " + configFile.getPath() + ": " + e.getMessage());
             rootNode = configurationLoader.createEmptyNode();
         }
 
@@ -248,12 +356,64 @@ public class BlockDisguises {
 
     @Listener
     public void onReload(GameReloadEvent event) {
-        ConfigurationNode config = loadConfig();
-        disguiseManager.updateConfig(config);
+        reloadConfig(null);
+    }
+
+    // Reads and validates the configuration off the main thread, then resolves its presets and swaps it in on the next tick
+    // A configuration with problems is rejected and the current one stays active. requester, if any, gets the outcome
+    public void reloadConfig(CommandSource requester) {
+        int sequence = ++reloadSequence;
+        Task.builder().async().execute(() -> {
+            List<String> errors = new ArrayList<>();
+            DisguiseConfig config = null;
+            try {
+                config = DisguiseConfig.read(loadConfig(errors), errors);
+            } catch (RuntimeException e) {
+                logger.error("Failed to read the configuration", e);
+                errors.add("Could not read the configuration: " + e);
+            }
+
+            DisguiseConfig read = config;
+            Task.builder().execute(() -> finishReload(sequence, read, errors, requester)).submit(this);
+        }).submit(this);
+    }
+
+    private void finishReload(int sequence, DisguiseConfig config, List<String> errors, CommandSource requester) {
+        if (sequence != reloadSequence) {
+            return; // A newer reload was requested in the meantime, its result wins
+        }
+
+        // Block states can only be looked up on the main thread
+        if (errors.isEmpty()) {
+            config = config.resolvePresets(errors);
+        }
+
+        if (!errors.isEmpty()) {
+            logger.error("Rejected the reloaded configuration, the previous one stays active. It has " + errors.size() + " problem(s):");
+            for (String error : errors) {
+                logger.error(" - " + error);
+            }
+
+            if (requester != null) {
+                requester.sendMessage(Text.of(prefix, TextColors.RED, "Configuration not reloaded, it has " + errors.size() + " problem(s):"));
+                for (String error : errors) {
+                    requester.sendMessage(Text.of(TextColors.RED, " - " + error));
+                }
+            }
+            return;
+        }
+
+        disguiseManager.applyConfig(config);
+        logger.info("Reloaded configuration");
+        if (requester != null) {
+            requester.sendMessage(Text.of(prefix, TextColors.YELLOW, "Reloaded configuration"));
+        }
     }
 
     @Listener
     public void onGameStoppingServer(GameStoppingServerEvent event) {
+        disguiseManager.saveSnapshot(); // Disguises are recreated from this when their owners join after the restart
         disguiseManager.undisguiseAll();
+        disguiseManager.getEntityPool().clear();
     }
 }
@@ -0,0 +1,42 @@
+package io.github.icohedron.blockdisguises;
+
+// Packs block and chunk coordinates into primitive longs so they can be used as map keys without allocating vectors
+public final class BlockKeys {
+
+    private BlockKeys() {
+    }
+
+    // 26 bits for x and z, 12 bits for y, all signed. Covers the full +-30,000,000 world border and y -2048 to 2047
+    public static long pack(int x, int y, int z) {
+        return ((long) (x & 0x3FFFFFF) << 38) | ((long) (z & 0x3FFFFFF) << 12) | (long) (y & 0xFFF);
+    }
+
+    public static int unpackX(long key) {
+        return (int) (key >> 38);
+    }
+
+    public static int unpackY(long key) {
+        return (int) (key << 52 >> 52);
+    }
+
+    public static int unpackZ(long key) {
+        return (int) (key << 26 >> 38);
+    }
+
+    public static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    public static int chunkX(long chunkKey) {
+        return (int) (chunkKey >> 32);
+    }
+
+    public static int chunkZ(long chunkKey) {
+        return (int) chunkKey;
+    }
+
+    // Chunk key of the chunk containing the given block
+    public static long chunkKeyOfBlock(int x, int z) {
+        return chunkKey(x >> 4, z >> 4);
+    }
+}
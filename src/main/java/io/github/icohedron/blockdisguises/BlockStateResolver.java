@@ -0,0 +1,119 @@
+package io.github.icohedron.blockdisguises;
+
+import org.spongepowered.api.Sponge;
+import org.spongepowered.api.block.BlockState;
+import org.spongepowered.api.block.BlockType;
+import org.spongepowered.api.block.trait.BlockTrait;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Turns block types plus trait strings, e.g. "minecraft:planks" and "variant=spruce", into block states
+// Every combination is only resolved once, after which disguising is a single map lookup
+public class BlockStateResolver {
+
+    // <Base block state id + "[" + traits + "]", Resolved block state>
+    // Only traits that all applied are cached, so typos typed into commands never grow it
+    private final Map<String, BlockState> cache = new ConcurrentHashMap<>();
+
+    // Applies comma separated name=value traits to a block state. Traits the block does not have or values it does not
+    // accept are ignored, like the flags of '/bd disguise' always have been
+    public BlockState resolve(BlockState base, String traits) {
+        if (traits.isEmpty()) {
+            return base;
+        }
+
+        String key = base.getId() + "[" + traits.toLowerCase(Locale.ROOT) + "]"; // Values that only differ in case share an entry
+        BlockState cached = cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        BlockState blockState = base;
+        boolean valid = true;
+        for (String trait : traits.split(",")) {
+            int split = trait.indexOf('=');
+            if (split < 0) {
+                valid = false;
+                continue;
+            }
+
+            Optional<BlockState> withTrait = withTrait(blockState, trait.substring(0, split), trait.substring(split + 1));
+            if (withTrait.isPresent()) {
+                blockState = withTrait.get();
+            } else {
+                valid = false;
+            }
+        }
+
+        if (valid) {
+            cache.put(key, blockState); // Bounded by the traits the block types actually have
+        }
+        return blockState;
+    }
+
+    // Parses a block state written as "minecraft:planks[variant=spruce,...]". Unlike resolve, every mistake is reported
+    // to errors and nothing is returned, so presets that are wrong are noticed when they are loaded
+    public static Optional<BlockState> parse(String spec, List<String> errors) {
+        String typeId = spec;
+        String traits = "";
+        int open = spec.indexOf('[');
+        if (open >= 0) {
+            if (!spec.endsWith("]")) {
+                errors.add("'" + spec + "' is missing a closing ']'");
+                return Optional.empty();
+            }
+            typeId = spec.substring(0, open);
+            traits = spec.substring(open + 1, spec.length() - 1).trim();
+        }
+
+        Optional<BlockType> blockType = Sponge.getRegistry().getType(BlockType.class, typeId.trim());
+        if (!blockType.isPresent()) {
+            errors.add("Unknown block type '" + typeId + "' in '" + spec + "'");
+            return Optional.empty();
+        }
+
+        BlockState blockState = blockType.get().getDefaultState();
+        if (traits.isEmpty()) {
+            return Optional.of(blockState);
+        }
+
+        boolean valid = true;
+        for (String trait : traits.split(",")) {
+            int split = trait.indexOf('=');
+            if (split < 0) {
+                errors.add("Expected name=value for trait '" + trait.trim() + "' in '" + spec + "'");
+                valid = false;
+                continue;
+            }
+
+            String name = trait.substring(0, split).trim();
+            String value = trait.substring(split + 1).trim();
+            Optional<BlockState> withTrait = withTrait(blockState, name, value);
+            if (!withTrait.isPresent()) {
+                errors.add(blockType.get().getId() + " has no trait '" + name + "' with value '" + value + "' in '" + spec + "'");
+                valid = false;
+                continue;
+            }
+            blockState = withTrait.get();
+        }
+
+        if (!valid) {
+            return Optional.empty();
+        }
+
+        return Optional.of(blockState);
+    }
+
+    private static Optional<BlockState> withTrait(BlockState blockState, String name, String value) {
+        Optional<BlockTrait<?>> blockTrait = blockState.getTrait(name);
+        if (!blockTrait.isPresent()) {
+            return Optional.empty();
+        }
+
+        return blockState.withTrait(blockTrait.get(), value);
+    }
+}
@@ -0,0 +1,76 @@
+package io.github.icohedron.blockdisguises;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// Applies batches of disguise operations on the main thread, a limited amount per tick,
+// so disguising a whole team does not spawn every entity in a single tick
+public class BulkOperationQueue {
+
+    // A batch of steps that completes its future after the last step ran
+    private static class Batch {
+        private final Queue<Runnable> steps;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private RuntimeException failure; // Thrown by a step, which ends the batch
+
+        private Batch(List<Runnable> steps) {
+            this.steps = new ArrayDeque<>(steps);
+        }
+    }
+
+    private final Queue<Batch> batches = new ConcurrentLinkedQueue<>(); // Submitted from any thread, drained on the main thread
+    private final List<Batch> finished = new ArrayList<>(); // Batches whose futures complete at the end of the tick
+
+    public CompletableFuture<Void> submit(List<Runnable> steps) {
+        Batch batch = new Batch(steps);
+        batches.add(batch);
+        return batch.future;
+    }
+
+    // Runs up to the given amount of steps, in submission order
+    // Futures of batches that finished are only completed by completeFinished
+    public void tick(int maxSteps) {
+        int remaining = maxSteps;
+        while (remaining > 0) {
+            Batch batch = batches.peek();
+            if (batch == null) {
+                return;
+            }
+
+            Runnable step = batch.steps.poll();
+            if (step != null) {
+                try {
+                    step.run();
+                } catch (RuntimeException e) {
+                    batches.remove(batch);
+                    batch.failure = e;
+                    finished.add(batch);
+                    continue;
+                }
+                remaining--;
+            }
+
+            if (batch.steps.isEmpty()) {
+                batches.remove(batch);
+                finished.add(batch);
+            }
+        }
+    }
+
+    // Completes the futures of the batches that finished this tick. Called once the disguise views were published,
+    // so whoever waits on a future sees the disguises it changed
+    public void completeFinished() {
+        for (Batch batch : finished) {
+            if (batch.failure != null) {
+                batch.future.completeExceptionally(batch.failure);
+            } else {
+                batch.future.complete(null);
+            }
+        }
+        finished.clear();
+    }
+}
@@ -0,0 +1,21 @@
+package io.github.icohedron.blockdisguises;
+
+// Categories of debug messages that can be toggled separately with '/bd debug [channel]'
+public enum DebugChannel {
+
+    LIFECYCLE(0), // Disguises being created, removed or going into the None state
+    STATE(20), // Disguises turning solid or mobile
+    ENTITY(20), // Armor stands and falling blocks being spawned and removed
+    BROADCAST(4), // Block changes sent to players, several times per second under load
+    INTERACTION(10); // Players hitting disguises
+
+    private final int maxPerSecond; // Most messages sent per second on this channel. 0 for no limit
+
+    DebugChannel(int maxPerSecond) {
+        this.maxPerSecond = maxPerSecond;
+    }
+
+    int getMaxPerSecond() {
+        return maxPerSecond;
+    }
+}
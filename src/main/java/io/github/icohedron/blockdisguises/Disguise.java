@@ -3,269 +3,162 @@ package io.github.icohedron.blockdisguises;
 import java.util.Optional;
 import java.util.UUID;
 
-import com.flowpowered.math.vector.Vector3i;
+import com.flowpowered.math.GenericMath;
+import com.flowpowered.math.vector.Vector3d;
 
 import org.spongepowered.api.Sponge;
 import org.spongepowered.api.block.BlockState;
-import org.spongepowered.api.block.BlockTypes;
-import org.spongepowered.api.data.DataTransactionResult;
-import org.spongepowered.api.data.key.Keys;
-import org.spongepowered.api.entity.Entity;
-import org.spongepowered.api.entity.EntityTypes;
+import org.spongepowered.api.entity.Transform;
 import org.spongepowered.api.entity.living.player.Player;
 import org.spongepowered.api.entity.living.player.User;
 import org.spongepowered.api.event.entity.MoveEntityEvent;
 import org.spongepowered.api.event.network.ClientConnectionEvent;
-import org.spongepowered.api.scheduler.Task;
 import org.spongepowered.api.service.user.UserStorageService;
 import org.spongepowered.api.text.Text;
 import org.spongepowered.api.text.format.TextColors;
 import org.spongepowered.api.world.Location;
 import org.spongepowered.api.world.World;
 
-import io.github.icohedron.blockdisguises.data.DisguiseOwnerData;
+import io.github.icohedron.blockdisguises.api.DisguiseState;
 
 public class Disguise {
 
     // Possible feature: xp bar counts down when the player stops moving so they know when they turn solid
 
-    public enum State {
-        MOBILE, SOLID, NONE
-    } // MOBILE - when the player is moving, SOLID - when the player is not moving, NONE - the player disconnected
-
     private DisguiseManager disguiseManager;
 
-    private State state; // Current state of this disguise
+    private DisguiseState state; // Current state of this disguise
     private UUID owner; // Disguise owner, as a player's UUID
+    private String ownerName; // Cached name of the owner
+    private Player ownerPlayer; // Cached owner while they are online, null while they are disconnected
     private BlockState blockState; // The block that this disguise represents
 
-    private Task solidifyTask; // Task for solidifying the player after a few moments
+    // Countdown for solidifying the player after a few moments, managed by the SolidifyScheduler
+    long solidifyDeadline = SolidifyScheduler.NO_DEADLINE; // Tick at which this disguise turns solid
+    long solidifyBucket = SolidifyScheduler.NO_DEADLINE; // Tick of the scheduler bucket this disguise sits in, if any
+
+    // How this disguise is shown to other players while mobile, null otherwise
+    private MobileRenderer.Rendering rendering;
+    boolean armorStandMoveQueued; // Whether this disguise is queued in the ArmorStandMover
 
-    // UUIDs of the armor stand and falling block making the moving disguise
-    private UUID armorStand;
-    private UUID fallingBlock;
+    // Last known location of this disguise, kept as primitives so move events allocate nothing
+    private World world; // World this disguise is in
+    private double x, y, z; // Exact position of the owner
+    private int blockX, blockY, blockZ; // Block containing that position
+    private Location<World> lastLocation; // Built from the above when needed, null while out of date
 
-    // UUID of the world this disguise is in
-    private Location<World> lastLocation; // Last known location of this disguise
+    // Where the owner last came to rest: the start of the solidify countdown, or where the disguise turned solid
+    // Movement is measured from here, so jitter around a block boundary neither restarts the countdown nor breaks out
+    private double anchorX, anchorY, anchorZ;
 
     // Creates a disguise for a given online player
     public Disguise(Player player, BlockState blockState) {
         disguiseManager = BlockDisguises.getInstance().getDisguiseManager();
 
-        state = State.MOBILE;
+        state = DisguiseState.MOBILE;
         owner = player.getUniqueId();
+        ownerName = player.getName();
+        ownerPlayer = player;
         this.blockState = blockState;
-        lastLocation = player.getLocation();
+        setPosition(player.getWorld(), player.getLocation().getPosition());
+        setAnchor();
 
         createEntities(player);
         createSolidifyTask();
 
-        BlockDisguises.sendDebugMessage(player.getName() + " has been disguised as " + blockState.getType().getName());
+        BlockDisguises.debug(DebugChannel.LIFECYCLE, () -> player.getName() + " has been disguised as " + blockState.getType().getName());
         player.sendMessage(Text.of(BlockDisguises.getTextPrefix(), TextColors.YELLOW, "You are now disguised as " + blockState.getType().getName().substring(10)));
     }
 
     public void createEntities(Player player) {
         assert player.getUniqueId().equals(owner);
-
-        World world = lastLocation.getExtent();
         assert world != null;
 
-        DisguiseOwnerData disguiseOwnerData = new DisguiseOwnerData(owner);
-        DataTransactionResult dataTransactionResult;
-
-        Entity armorStandEntity = world.createEntity(EntityTypes.ARMOR_STAND, player.getLocation().getPosition());
-        armorStandEntity.offer(Keys.HAS_GRAVITY, false);
-        armorStandEntity.offer(Keys.INVISIBLE, true);
-        armorStandEntity.offer(Keys.ARMOR_STAND_MARKER, true);
-
-        dataTransactionResult = armorStandEntity.offer(disguiseOwnerData);
-        assert dataTransactionResult.isSuccessful();
-
-        Entity fallingBlockEntity = world.createEntity(EntityTypes.FALLING_BLOCK, player.getLocation().getPosition());
-        fallingBlockEntity.offer(Keys.HAS_GRAVITY, false);
-        fallingBlockEntity.offer(Keys.FALL_TIME, Integer.MAX_VALUE);
-        fallingBlockEntity.offer(Keys.FALLING_BLOCK_STATE, blockState);
-
-        dataTransactionResult = fallingBlockEntity.offer(disguiseOwnerData);
-        assert dataTransactionResult.isSuccessful();
-
-        world.spawnEntity(armorStandEntity);
-        world.spawnEntity(fallingBlockEntity);
-
-        armorStandEntity.addPassenger(fallingBlockEntity);
-
-        armorStand = armorStandEntity.getUniqueId();
-        fallingBlock = fallingBlockEntity.getUniqueId();
+        if (rendering != null) {
+            return; // Already shown
+        }
 
-        BlockDisguises.sendDebugMessage("Summoned armor_stand and falling_block entities for " + player.getName() + "'s disguise");
+        rendering = disguiseManager.getMobileRenderer().show(this);
     }
 
     private void removeEntities() {
-        World world = lastLocation.getExtent();
-        if (world == null) {
-            return; // Entites will be removed by the chunkload event in the near future
+        if (rendering == null) {
+            return; // Already removed
         }
 
-        if (armorStand != null) {
-            Optional<Entity> entity = world.getEntity(armorStand);
-            entity.ifPresent(Entity::remove);
-        }
-
-        if (fallingBlock != null) {
-            Optional<Entity> entity = world.getEntity(fallingBlock);
-            entity.ifPresent(Entity::remove);
-        }
-
-        Optional<String> ownerName = getOwnerName();
-        if (ownerName.isPresent()) {
-            BlockDisguises.sendDebugMessage("Despawned armor_stand and falling_block entities for " + ownerName.get() + "'s disguise");
-        } else {
-            BlockDisguises.sendDebugMessage("Despawned armor_stand and falling_block entities for disguise associated with player UUID " + ownerName.toString());
-        }
+        rendering.hide();
+        rendering = null;
     }
 
-    public void sendBlockChange(Player player) {
-        // Send a block change to a single player
-        if (state != State.SOLID) {
-            return; // No block change to send
+    // Queue a block change for a single player. Returns whether a block change was queued
+    public boolean sendBlockChange(Player player) {
+        // The broadcaster has already checked that the player is in this disguise's world and within range
+        // Mobile disguises are only synced while rendered virtually
+        if (state == DisguiseState.NONE) {
+            return false; // No block change to send
         }
 
         // Prevents the player from being pushed away by their own block
         if (player.getUniqueId().equals(owner)) {
-            return;
-        }
-
-        if (player.getWorld().getUniqueId().equals(getWorld())) {
-
-            // Render distance check commented out because it might be causing issues with players not being able to see solid blocks
-            // Vector3i playerBlockPosition = player.getLocation().getBlockPosition();
-            // Vector3i thisBlockPosition = lastLocation.getBlockPosition();
-
-            // if (playerBlockPosition.distance(thisBlockPosition) <= player.getViewDistance() * 16) {
-                // player.sendBlockChange(lastLocation.getBlockPosition(), blockState);
-            // }
-
-            player.sendBlockChange(lastLocation.getBlockPosition(), blockState);
+            return false;
         }
 
         // No debug message for this because of spam
-    }
-
-    // public void sendBlockChangeOptimally(Player player, Location<World> from, Location<World> to) {
-    //     // Currently unused. Thought of sending a single block change if a player just moved within render distance of the block
-    //     if (state != State.SOLID) {
-    //         return; // No block change to send
-    //     }
-
-    //     // Prevents the player from being pushed away by their own block
-    //     if (player.getUniqueId().equals(owner)) {
-    //         return;
-    //     }
-
-    //     if (from.getExtent().getUniqueId().equals(getWorld())) {
-
-    //         Vector3i thisBlockPosition = lastLocation.getBlockPosition();
-    //         Vector3i fromBlockPosition = from.getBlockPosition();
-    //         Vector3i toBlockPosition = to.getBlockPosition();
-
-    //         int viewDistance = player.getViewDistance() * 16; // View distance in blocks
-
-    //         float distFrom = fromBlockPosition.distance(thisBlockPosition);
-    //         float distTo = toBlockPosition.distance(thisBlockPosition);
-
-    //         if (distFrom > viewDistance && distTo <= viewDistance) {
-    //             player.sendBlockChange(lastLocation.getBlockPosition(), blockState);
-    //         }
-    //     }
-    // }
-
-    public void sendBlockChanges() {
-        // Send block changes to all players within render distance
-
-        if (state != State.SOLID) {
-            return; // No block change to send
-        }
-
-        for (Player player : Sponge.getServer().getOnlinePlayers()) {
-            // Prevents the player from being pushed away by their own block
-            if (player.getUniqueId().equals(owner)) {
-                return;
-            }
-
-            if (player.getWorld().getUniqueId().equals(getWorld())) {
-
-                // Vector3i playerBlockPosition = player.getLocation().getBlockPosition();
-                // Vector3i thisBlockPosition = lastLocation.getBlockPosition();
-
-                // if (playerBlockPosition.distance(thisBlockPosition) <= player.getViewDistance() * 16) {
-                //     player.sendBlockChange(lastLocation.getBlockPosition(), blockState);
-                // }
-
-                player.sendBlockChange(lastLocation.getBlockPosition(), blockState);
-            }
-        }
-
-        // No debug message for this because of spam
-    }
-
-    private void resetBlockChanges(Vector3i blockPosition) {
-        // Reset block changes for all players at a given location
-        for (Player player : Sponge.getServer().getOnlinePlayers()) {
-            if (player.getWorld().getUniqueId().equals(getWorld())) {
-                Vector3i playerBlockPosition = player.getLocation().getBlockPosition();
-
-                if (playerBlockPosition.distance(blockPosition) <= player.getViewDistance() * 16) {
-                    player.resetBlockChange(blockPosition);
-                }
-            }
-        }
+        disguiseManager.getBroadcaster().getBatcher().queueChange(player, blockX, blockY, blockZ, blockState);
+        return true;
     }
 
     private void resetBlockChanges() {
         // Reset block changes for all players at this disguise's location
-        resetBlockChanges(lastLocation.getBlockPosition());
+        if (disguiseManager.getSolidDisguiseAt(getWorld(), blockX, blockY, blockZ) != this) {
+            return; // Not shown as a block there, or the block is another disguise's
+        }
+        disguiseManager.getBroadcaster().resetBlock(getWorld(), blockX, blockY, blockZ);
     }
 
     private void cancelSolidifyTask() {
-        if (solidifyTask != null) {
-            solidifyTask.cancel();
-        }
+        disguiseManager.getSolidifyScheduler().cancel(this);
     }
 
     private void createSolidifyTask() {
-        solidifyTask = Task.builder().delayTicks(disguiseManager.getSolidifyDelay()).execute(this::setSolid).submit(BlockDisguises.getInstance());
+        disguiseManager.getSolidifyScheduler().schedule(this, disguiseManager.getSolidifyDelay());
     }
 
     private void resetSolidifyTask() {
-        cancelSolidifyTask();
+        // Only moves the deadline, nothing is allocated
         createSolidifyTask();
     }
 
     private void setMobile(Player player) {
         assert player.getUniqueId().equals(owner);
-        if (state == State.MOBILE) {
+        if (state == DisguiseState.MOBILE) {
             return; // Already in MOBILE state
         }
 
         resetBlockChanges();
-        state = State.MOBILE;
+        disguiseManager.unindexSolid(this);
+        state = DisguiseState.MOBILE;
+        disguiseManager.getMetrics().increment(DisguiseMetrics.Counter.TRANSITIONS);
+        disguiseManager.markDirty();
         createEntities(player);
         resetSolidifyTask();
 
-        BlockDisguises.sendDebugMessage(player.getName() + " is now moving (unsolidfied)");
+        BlockDisguises.debug(DebugChannel.STATE, () -> player.getName() + " is now moving (unsolidfied)");
     }
 
-    private void setSolid() {
-        if (state == State.SOLID) {
+    void setSolid() {
+        if (state == DisguiseState.SOLID) {
             return; // Already in SOLID state
         }
 
-        Optional<User> user = getOwnerUser();
-        assert user.isPresent() && user.get().getPlayer().isPresent();
-        Player player = user.get().getPlayer().get();
+        Player player = ownerPlayer;
+        if (player == null) {
+            return; // Owner disconnected, they will become mobile again when they join
+        }
 
-        // The player must be in an air block to be set solid
-        if (!lastLocation.getExtent().getBlock(lastLocation.getBlockPosition()).getType().equals(BlockTypes.AIR)) {
+        // The player must be in an air block that no other disguise occupies to be set solid
+        Disguise occupant = disguiseManager.getSolidDisguiseAt(getWorld(), blockX, blockY, blockZ);
+        if ((occupant != null && occupant != this) || !disguiseManager.getPlatform().isAir(world, blockX, blockY, blockZ)) {
             resetSolidifyTask();
             player.sendMessage(Text.of(BlockDisguises.getInstance().getTextPrefix(), TextColors.RED, "You may not turn solid here!"));
             return;
@@ -274,72 +167,124 @@ public class Disguise {
         player.sendMessage(Text.of(BlockDisguises.getInstance().getTextPrefix(), TextColors.YELLOW, "You have become solid!"));
 
         removeEntities();
-        state = State.SOLID;
-//        sendBlockChanges();
+        state = DisguiseState.SOLID;
+        setAnchor(); // Breaking out is measured from where the disguise turned solid
+        disguiseManager.indexSolid(this); // Sent to players within range by the broadcaster's budgeted sync
+        disguiseManager.getMetrics().increment(DisguiseMetrics.Counter.TRANSITIONS);
+        disguiseManager.markDirty();
 
-        BlockDisguises.sendDebugMessage(player.getName() + " is now solid");
+        BlockDisguises.debug(DebugChannel.STATE, () -> player.getName() + " is now solid");
     }
 
     private void setNone() {
         removeEntities();
         resetBlockChanges();
+        disguiseManager.unindexSolid(this);
         cancelSolidifyTask();
-        state = State.NONE;
+        state = DisguiseState.NONE;
+        disguiseManager.getMetrics().increment(DisguiseMetrics.Counter.TRANSITIONS);
+        disguiseManager.markDirty();
 
-        Optional<String> ownerName = getOwnerName();
-        if (ownerName.isPresent()) {
-            BlockDisguises.sendDebugMessage(ownerName.get() + " is in a None state (disconnected maybe?)");
-        } else {
-            BlockDisguises.sendDebugMessage("Player with UUID " + getOwner() + " is in a None state (disconnected maybe?)");
-        }
+        BlockDisguises.debug(DebugChannel.LIFECYCLE, () -> describeOwner() + " is in a None state (disconnected maybe?)");
     }
 
     public void moveCallback(MoveEntityEvent event, Player player) { // Call this function when the disguise owner moves.
         assert player.getUniqueId().equals(owner);
+        disguiseManager.getMetrics().increment(DisguiseMetrics.Counter.MOVE_CALLBACKS);
 
-        Location<World> from = event.getFromTransform().getLocation();
-        Location<World> to = event.getToTransform().getLocation();
-
-        if (!from.getExtent().getUniqueId().equals(to.getExtent().getUniqueId())) {
+        // Transforms hand out the world and position they hold, unlike getLocation() which builds a new Location
+        Transform<World> to = event.getToTransform();
+        World toWorld = to.getExtent();
+        if (toWorld != world && !toWorld.getUniqueId().equals(world.getUniqueId())) {
             disguiseManager.undisguise(owner);
             player.sendMessage(Text.of(BlockDisguises.getInstance().getTextPrefix(), TextColors.RED, "Undisguised due to changing worlds/dimensions!"));
             return;
         }
 
-        boolean blockLocationChanged = !from.getExtent().getUniqueId().equals(to.getExtent().getUniqueId()) // If the worlds between positions are not the same
-                || !from.getBlockPosition().equals(to.getBlockPosition());              // or if the block location of the player changed
+        Vector3d position = to.getPosition();
+        double displacement = distanceSquaredFromAnchor(position);
 
-        if (state == State.SOLID) {
-            if (blockLocationChanged) {
-                resetBlockChanges(from.getBlockPosition());
-                setMobile(player);
-                player.sendMessage(Text.of(BlockDisguises.getInstance().getTextPrefix(), TextColors.RED, "You are no longer solid!"));
+        if (state == DisguiseState.SOLID) {
+            double breakOutDistance = disguiseManager.getBreakOutDistance();
+            if (displacement <= breakOutDistance * breakOutDistance) {
+                return; // Still solid, and the block stays where the disguise turned solid
             }
-        } else if (state == State.MOBILE) {
-            if (blockLocationChanged) {
+
+            setMobile(player); // Resets the block and unindexes it at the old position
+            setAnchor(position); // The countdown to solidify again starts here
+            disguiseManager.getArmorStandMover().queue(this); // Rendering catches up with the last position at the end of the tick
+            player.sendMessage(Text.of(BlockDisguises.getInstance().getTextPrefix(), TextColors.RED, "You are no longer solid!"));
+        } else if (state == DisguiseState.MOBILE) {
+            double stillnessRadius = disguiseManager.getStillnessRadius();
+            if (displacement > stillnessRadius * stillnessRadius) {
+                setAnchor(position);
                 resetSolidifyTask();
             }
 
-            Optional<Entity> armorStandEntity = from.getExtent().getEntity(armorStand);
-            assert armorStandEntity.isPresent();
+            disguiseManager.getArmorStandMover().queue(this); // Rendering follows the last position at the end of the tick
+        }
 
-            Task.builder().execute(() ->
-                armorStandEntity.get().setLocation(to)
-            ).submit(BlockDisguises.getInstance());
+        boolean blockLocationChanged = GenericMath.floor(position.getX()) != blockX || GenericMath.floor(position.getY()) != blockY
+                || GenericMath.floor(position.getZ()) != blockZ;
+        if (blockLocationChanged) {
+            disguiseManager.markViewsDirty();
         }
 
-        lastLocation = to;
+        setPosition(toWorld, position);
+    }
+
+    private double distanceSquaredFromAnchor(Vector3d position) {
+        double dx = position.getX() - anchorX;
+        double dy = position.getY() - anchorY;
+        double dz = position.getZ() - anchorZ;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private void setAnchor(Vector3d position) {
+        anchorX = position.getX();
+        anchorY = position.getY();
+        anchorZ = position.getZ();
+    }
+
+    // Anchors at the last known position
+    private void setAnchor() {
+        anchorX = x;
+        anchorY = y;
+        anchorZ = z;
+    }
+
+    private void setPosition(World world, Vector3d position) {
+        this.world = world;
+        x = position.getX();
+        y = position.getY();
+        z = position.getZ();
+        blockX = GenericMath.floor(x);
+        blockY = GenericMath.floor(y);
+        blockZ = GenericMath.floor(z);
+        lastLocation = null;
     }
 
+    // Moves the rendering to the latest known location. Called once per tick by the ArmorStandMover
+    void applyArmorStandMove() {
+        if (state != DisguiseState.MOBILE || rendering == null) {
+            return; // Rendering was removed since the move was queued
+        }
+
+        rendering.move();
+    }
 
     public void clientJoinCallback(ClientConnectionEvent.Join event, Player player) {
         assert player.getUniqueId().equals(owner);
+        ownerPlayer = player;
+        ownerName = player.getName(); // The owner may have changed their name while offline
         setMobile(player);
+        setAnchor();
     }
 
     public void clientDisconnectCallback(ClientConnectionEvent.Disconnect event, Player player) {
         assert player.getUniqueId().equals(owner);
         setNone();
+        ownerPlayer = null;
     }
 
     // Disposes of this disguise
@@ -347,37 +292,42 @@ public class Disguise {
         removeEntities();
         cancelSolidifyTask();
         resetBlockChanges();
+        disguiseManager.unindexSolid(this);
 
-        Optional<String> ownerName = getOwnerName();
-        if (ownerName.isPresent()) {
-            BlockDisguises.sendDebugMessage("Removed disguise for " + ownerName.get());
-        } else {
-            BlockDisguises.sendDebugMessage("Removed disguise for player with UUID " + getOwner());
-        }
+        BlockDisguises.debug(DebugChannel.LIFECYCLE, () -> "Removed disguise for " + describeOwner());
     }
 
     public Optional<User> getOwnerUser() {
-        Optional<Player> onlinePlayer = Sponge.getServer().getPlayer(owner);
-        if (onlinePlayer.isPresent()) {
-            return Optional.of(onlinePlayer.get()); // Due to Optionals not recognizing polymorphism (Player inherits from User)
+        if (ownerPlayer != null) {
+            return Optional.of(ownerPlayer); // Due to Optionals not recognizing polymorphism (Player inherits from User)
         }
 
+        // Only reached while the owner is disconnected
         Optional<UserStorageService> userStorageService = Sponge.getServiceManager().provide(UserStorageService.class);
         assert userStorageService.isPresent();
         return userStorageService.get().get(owner);
     }
 
+    // The owner, if they are online. Never looks up the player
+    public Optional<Player> getOwnerPlayer() {
+        return Optional.ofNullable(ownerPlayer);
+    }
+
     public Optional<String> getOwnerName() {
-        Optional<User> user = getOwnerUser();
-        return user.map(User::getName);
+        return Optional.ofNullable(ownerName);
+    }
+
+    // Owner name for messages, falling back to the UUID if the name is unknown
+    public String describeOwner() {
+        return getOwnerName().orElse("player with UUID " + owner);
     }
 
     // Checks if a given UUID matches one in use for this disguise
     public boolean isAssociatedWith(UUID uuid) {
-        return owner.equals(uuid) || armorStand.equals(uuid) || fallingBlock.equals(uuid) || getWorld().equals(uuid);
+        return owner.equals(uuid) || getWorld().equals(uuid) || (rendering != null && rendering.isAssociatedWith(uuid));
     }
 
-    public State getState() {
+    public DisguiseState getState() {
         return state;
     }
 
@@ -389,19 +339,36 @@ public class Disguise {
         return blockState;
     }
 
-    public UUID getArmorStand() {
-        return armorStand;
+    public Location<World> getLocation() {
+        return getLastLocation().copy();
     }
 
-    public UUID getFallingBlock() {
-        return fallingBlock;
+    // Last known location without copying it, for renderers. Only built once per move, not once per move event
+    Location<World> getLastLocation() {
+        if (lastLocation == null) {
+            lastLocation = new Location<>(world, x, y, z);
+        }
+        return lastLocation;
     }
 
-    public Location<World> getLocation() {
-        return lastLocation.copy();
+    // World this disguise is in, without building a Location
+    World getExtent() {
+        return world;
     }
 
     public UUID getWorld() {
-        return lastLocation.getExtent().getUniqueId();
+        return world.getUniqueId();
+    }
+
+    public int getBlockX() {
+        return blockX;
+    }
+
+    public int getBlockY() {
+        return blockY;
+    }
+
+    public int getBlockZ() {
+        return blockZ;
     }
 }
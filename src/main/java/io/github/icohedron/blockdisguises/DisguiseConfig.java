@@ -0,0 +1,236 @@
+package io.github.icohedron.blockdisguises;
+
+import ninja.leaping.configurate.ConfigurationNode;
+import ninja.leaping.configurate.SimpleConfigurationNode;
+import org.spongepowered.api.block.BlockState;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+
+// Immutable, validated contents of blockdisguises.conf
+// Read off the main thread on reload, then has its presets resolved on the main thread and is swapped in as a whole,
+// so the plugin never runs on a half-applied configuration
+public final class DisguiseConfig {
+
+    public enum MobileRenderMode {
+        ENTITY, // Armor stand carrying a falling block
+        VIRTUAL // Fake block following the player, without entities
+    }
+
+    // Configuration with every option at its default
+    public static final DisguiseConfig DEFAULTS = load(SimpleConfigurationNode.root(), new ArrayList<>());
+
+    private final int solidifyDelay; // Amount of delay, in game ticks, before a disguise turns into a solid block
+    private final double stillnessRadius; // Blocks a mobile disguise may drift from where it stopped without resetting its countdown
+    private final double breakOutDistance; // Blocks a solid disguise must move from where it turned solid before it turns mobile
+    private final int broadcastRadius; // Radius, in chunks, around a player in which solid disguises are sent. 0 uses the player's view distance
+    private final int broadcastPacketBudget; // Block changes sent per tick before the remaining players wait. 0 is unlimited
+    private final double broadcastTimeBudget; // Milliseconds per tick spent syncing players before the rest wait. 0 is unlimited
+    private final int bulkOperationsPerTick; // Players disguised or undisguised per tick through the DisguiseService
+    private final int entityPoolSize; // Most unused entity pairs kept for reuse. 0 disables pooling
+    private final int entityPoolIdleTicks; // Ticks after which an unused entity pair is removed
+    private final MobileRenderMode mobileRenderMode; // How disguises that turn mobile are shown
+    private final Map<String, String> presetSpecs; // <Preset name, Block state as written, e.g. "minecraft:planks[variant=spruce]">
+    private final Map<String, BlockState> presets; // <Preset name, Block state>, empty until the presets were resolved
+    private final boolean persistDisguises; // Whether disguises are saved across restarts. Only read on startup
+
+    private DisguiseConfig(ConfigurationNode config, List<String> errors) {
+        solidifyDelay = readInt(config, "solidify_delay", 60, 0, errors);
+        stillnessRadius = readDouble(config, "stillness_radius", 0.3, 0, errors);
+        breakOutDistance = readBreakOutDistance(config, stillnessRadius, errors);
+        broadcastRadius = readInt(config, "broadcast_radius", 0, 0, errors);
+        broadcastPacketBudget = readInt(config, "broadcast_packet_budget", 2000, 0, errors);
+        broadcastTimeBudget = readDouble(config, "broadcast_time_budget", 5.0, 0, errors);
+        bulkOperationsPerTick = readInt(config, "bulk_operations_per_tick", 5, 1, errors);
+        entityPoolSize = readInt(config, "entity_pool_size", 32, 0, errors);
+        entityPoolIdleTicks = readInt(config, "entity_pool_idle_ticks", 1200, 1, errors);
+        mobileRenderMode = readMobileRenderMode(config, errors);
+        presetSpecs = readPresetSpecs(config);
+        presets = Collections.emptyMap();
+        persistDisguises = config.getNode("persist_disguises").getBoolean(true);
+    }
+
+    private DisguiseConfig(DisguiseConfig read, Map<String, BlockState> presets) {
+        solidifyDelay = read.solidifyDelay;
+        stillnessRadius = read.stillnessRadius;
+        breakOutDistance = read.breakOutDistance;
+        broadcastRadius = read.broadcastRadius;
+        broadcastPacketBudget = read.broadcastPacketBudget;
+        broadcastTimeBudget = read.broadcastTimeBudget;
+        bulkOperationsPerTick = read.bulkOperationsPerTick;
+        entityPoolSize = read.entityPoolSize;
+        entityPoolIdleTicks = read.entityPoolIdleTicks;
+        mobileRenderMode = read.mobileRenderMode;
+        presetSpecs = read.presetSpecs;
+        this.presets = presets;
+        persistDisguises = read.persistDisguises;
+    }
+
+    // Reads and validates a configuration, including its presets. Every problem is added to errors; the configuration
+    // should only be used if there were none. Main thread only, since presets are resolved through the game registry
+    public static DisguiseConfig load(ConfigurationNode config, List<String> errors) {
+        return read(config, errors).resolvePresets(errors);
+    }
+
+    // Reads and validates everything but the presets, which are only read as written. Safe to call off the main thread
+    public static DisguiseConfig read(ConfigurationNode config, List<String> errors) {
+        return new DisguiseConfig(config, errors);
+    }
+
+    // Returns a copy of this configuration with its presets resolved to block states. Presets that do not resolve are
+    // added to errors. Main thread only
+    public DisguiseConfig resolvePresets(List<String> errors) {
+        return new DisguiseConfig(this, resolvePresets(presetSpecs, errors));
+    }
+
+    private static int readInt(ConfigurationNode config, String name, int defaultValue, int min, List<String> errors) {
+        ConfigurationNode node = config.getNode(name);
+        if (node.isVirtual() || node.getValue() == null) {
+            return defaultValue;
+        }
+
+        Object value = node.getValue();
+        int parsed;
+        if (value instanceof Number && ((Number) value).doubleValue() == ((Number) value).intValue()) {
+            parsed = ((Number) value).intValue();
+        } else {
+            try {
+                parsed = Integer.parseInt(value.toString().trim());
+            } catch (NumberFormatException e) {
+                errors.add(name + " must be a whole number, but is '" + value + "'");
+                return defaultValue;
+            }
+        }
+
+        if (parsed < min) {
+            errors.add(name + " must be at least " + min + ", but is " + parsed);
+            return defaultValue;
+        }
+        return parsed;
+    }
+
+    private static double readDouble(ConfigurationNode config, String name, double defaultValue, double min, List<String> errors) {
+        ConfigurationNode node = config.getNode(name);
+        if (node.isVirtual() || node.getValue() == null) {
+            return defaultValue;
+        }
+
+        Object value = node.getValue();
+        double parsed;
+        if (value instanceof Number) {
+            parsed = ((Number) value).doubleValue();
+        } else {
+            try {
+                parsed = Double.parseDouble(value.toString().trim());
+            } catch (NumberFormatException e) {
+                errors.add(name + " must be a number, but is '" + value + "'");
+                return defaultValue;
+            }
+        }
+
+        if (!(parsed >= min) || Double.isInfinite(parsed)) { // Also rejects NaN
+            errors.add(name + " must be a finite number of at least " + min + ", but is " + parsed);
+            return defaultValue;
+        }
+        return parsed;
+    }
+
+    // The break out distance must not be below the stillness radius, or small movements would unsolidify a disguise
+    // that the same movements would not have kept from solidifying
+    private static double readBreakOutDistance(ConfigurationNode config, double stillnessRadius, List<String> errors) {
+        double breakOutDistance = readDouble(config, "break_out_distance", Math.max(0.6, stillnessRadius), 0, errors);
+        if (breakOutDistance < stillnessRadius) {
+            errors.add("break_out_distance must be at least stillness_radius (" + stillnessRadius + "), but is " + breakOutDistance);
+            return stillnessRadius;
+        }
+        return breakOutDistance;
+    }
+
+    private static MobileRenderMode readMobileRenderMode(ConfigurationNode config, List<String> errors) {
+        String mode = config.getNode("mobile_render_mode").getString("entity");
+        try {
+            return MobileRenderMode.valueOf(mode.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            errors.add("mobile_render_mode must be 'entity' or 'virtual', but is '" + mode + "'");
+            return MobileRenderMode.ENTITY;
+        }
+    }
+
+    private static Map<String, String> readPresetSpecs(ConfigurationNode config) {
+        Map<String, String> presetSpecs = new LinkedHashMap<>();
+        for (Map.Entry<Object, ? extends ConfigurationNode> preset : config.getNode("presets").getChildrenMap().entrySet()) {
+            presetSpecs.put(preset.getKey().toString().toLowerCase(Locale.ROOT), preset.getValue().getString(""));
+        }
+        return Collections.unmodifiableMap(presetSpecs);
+    }
+
+    private static Map<String, BlockState> resolvePresets(Map<String, String> presetSpecs, List<String> errors) {
+        Map<String, BlockState> presets = new LinkedHashMap<>();
+        for (Map.Entry<String, String> preset : presetSpecs.entrySet()) {
+            String name = preset.getKey();
+            int errorCount = errors.size();
+            Optional<BlockState> blockState = BlockStateResolver.parse(preset.getValue(), errors);
+            if (blockState.isPresent()) {
+                presets.put(name, blockState.get());
+            } else {
+                for (int i = errorCount; i < errors.size(); i++) {
+                    errors.set(i, "Preset '" + name + "': " + errors.get(i));
+                }
+            }
+        }
+        return Collections.unmodifiableMap(presets);
+    }
+
+    public int getSolidifyDelay() {
+        return solidifyDelay;
+    }
+
+    public double getStillnessRadius() {
+        return stillnessRadius;
+    }
+
+    public double getBreakOutDistance() {
+        return breakOutDistance;
+    }
+
+    public int getBroadcastRadius() {
+        return broadcastRadius;
+    }
+
+    public int getBroadcastPacketBudget() {
+        return broadcastPacketBudget;
+    }
+
+    public double getBroadcastTimeBudget() {
+        return broadcastTimeBudget;
+    }
+
+    public int getBulkOperationsPerTick() {
+        return bulkOperationsPerTick;
+    }
+
+    public int getEntityPoolSize() {
+        return entityPoolSize;
+    }
+
+    public int getEntityPoolIdleTicks() {
+        return entityPoolIdleTicks;
+    }
+
+    public MobileRenderMode getMobileRenderMode() {
+        return mobileRenderMode;
+    }
+
+    public Map<String, BlockState> getPresets() {
+        return presets;
+    }
+
+    public boolean isPersistDisguises() {
+        return persistDisguises;
+    }
+}
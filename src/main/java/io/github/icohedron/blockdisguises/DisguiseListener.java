@@ -4,14 +4,17 @@ import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
+import com.flowpowered.math.vector.Vector3d;
 import com.flowpowered.math.vector.Vector3i;
 
 import org.spongepowered.api.data.key.Keys;
+import org.spongepowered.api.data.property.entity.EyeLocationProperty;
 import org.spongepowered.api.data.value.mutable.Value;
 import org.spongepowered.api.effect.sound.SoundTypes;
 import org.spongepowered.api.entity.Entity;
+import org.spongepowered.api.entity.EntityType;
+import org.spongepowered.api.entity.EntityTypes;
 import org.spongepowered.api.entity.living.player.Player;
-import org.spongepowered.api.entity.living.player.User;
 import org.spongepowered.api.entity.living.player.gamemode.GameMode;
 import org.spongepowered.api.entity.living.player.gamemode.GameModes;
 import org.spongepowered.api.event.Listener;
@@ -21,23 +24,25 @@ import org.spongepowered.api.event.entity.DestructEntityEvent;
 import org.spongepowered.api.event.entity.InteractEntityEvent;
 import org.spongepowered.api.event.entity.MoveEntityEvent;
 import org.spongepowered.api.event.entity.SpawnEntityEvent;
+import org.spongepowered.api.event.entity.living.humanoid.player.RespawnPlayerEvent;
 import org.spongepowered.api.event.filter.cause.First;
 import org.spongepowered.api.event.network.ClientConnectionEvent;
-import org.spongepowered.api.util.blockray.BlockRay;
-import org.spongepowered.api.util.blockray.BlockRayHit;
-import org.spongepowered.api.world.Location;
-import org.spongepowered.api.world.World;
+import org.spongepowered.api.event.world.LoadWorldEvent;
+import org.spongepowered.api.event.world.UnloadWorldEvent;
 
+import io.github.icohedron.blockdisguises.api.DisguiseState;
 import io.github.icohedron.blockdisguises.data.DisguiseOwnerData;
 
 public class DisguiseListener {
 
     private BlockDisguises blockDisguises;
     private DisguiseManager disguiseManager;
+    private DisguiseMetrics metrics;
 
     public DisguiseListener() {
         blockDisguises = BlockDisguises.getInstance();
         disguiseManager = blockDisguises.getDisguiseManager();
+        metrics = disguiseManager.getMetrics();
     }
 
     private boolean isKillable(Player player) {
@@ -53,32 +58,46 @@ public class DisguiseListener {
 
     @Listener
     public void onSpawnEntityChunkLoadEvent(SpawnEntityEvent.ChunkLoad event) {
+        long start = metrics.startTiming();
+        try {
+            // Remove any entities that were created by this plugin and are no longer in use
+            List<Entity> entities = event.getEntities();
+            for (Entity e : entities) {
+
+                // Only armor stands and falling blocks can be ours
+                EntityType type = e.getType();
+                if (type != EntityTypes.ARMOR_STAND && type != EntityTypes.FALLING_BLOCK) {
+                    continue;
+                }
 
-        // Remove any entities that were created by this plugin and are no longer in use
-        List<Entity> entities = event.getEntities();
-        for (Entity e : entities) {
+                // Entities spawned for a disguise that is still using them don't need their custom data read
+                if (disguiseManager.isDisguiseEntity(e.getUniqueId())) {
+                    continue;
+                }
 
-            // Check if the entity has a DisguiseOwnerData data manipulator
-            Optional<DisguiseOwnerData> disguiseOwnerDataOptional = e.get(DisguiseOwnerData.class);
-            if (disguiseOwnerDataOptional.isPresent()) {
+                // Check if the entity has a DisguiseOwnerData data manipulator
+                Optional<DisguiseOwnerData> disguiseOwnerDataOptional = e.get(DisguiseOwnerData.class);
+                if (disguiseOwnerDataOptional.isPresent()) {
 
-                // If so, remove this entity if the disguise owner isn't disguised
-                DisguiseOwnerData disguiseOwnerData = disguiseOwnerDataOptional.get();
-                UUID disguiseOwner = disguiseOwnerData.get(BlockDisguises.DISGUISE_OWNER).get();
+                    // If so, remove this entity if the disguise owner isn't disguised
+                    DisguiseOwnerData disguiseOwnerData = disguiseOwnerDataOptional.get();
+                    UUID disguiseOwner = disguiseOwnerData.get(BlockDisguises.DISGUISE_OWNER).get();
 
-                // Remove the entity if it is no longer in use
-                if (!disguiseManager.isDisguised(disguiseOwner)) { // No corresponding disguise associated with this entity
-                    e.remove();
-                } else {
-                    Disguise disguise = disguiseManager.getDisguise(disguiseOwner);
-                    if (!disguise.isAssociatedWith(e.getUniqueId())) { // This is an entity no longer associated with this disguise
+                    // Remove the entity if it is no longer in use
+                    if (!disguiseManager.isDisguised(disguiseOwner)) { // No corresponding disguise associated with this entity
                         e.remove();
+                    } else {
+                        Disguise disguise = disguiseManager.getDisguise(disguiseOwner);
+                        if (!disguise.isAssociatedWith(e.getUniqueId())) { // This is an entity no longer associated with this disguise
+                            e.remove();
+                        }
                     }
                 }
-            }
 
+            }
+        } finally {
+            metrics.stopTiming(DisguiseMetrics.Timer.CHUNK_LOAD_LISTENER, start);
         }
-
     }
 
     @Listener
@@ -94,33 +113,69 @@ public class DisguiseListener {
 
     @Listener
     public void onClientJoin(ClientConnectionEvent.Join event, @First Player player) {
-        UUID uuid = player.getUniqueId();
-        if (disguiseManager.isDisguised(uuid)) {
-            Disguise disguise = disguiseManager.getDisguise(uuid);
-            disguise.clientJoinCallback(event, player);
-        }
+        long start = metrics.startTiming();
+        try {
+            UUID uuid = player.getUniqueId();
+            if (disguiseManager.isDisguised(uuid)) {
+                Disguise disguise = disguiseManager.getDisguise(uuid);
+                disguise.clientJoinCallback(event, player);
+            } else {
+                disguiseManager.restore(player); // Disguised before the server restarted
+            }
 
-//        disguiseManager.sendBlockChanges(player);
+            // A (re)connecting client has none of the disguise blocks, so they are all sent again on the next tick
+            disguiseManager.getBroadcaster().invalidate(uuid);
+        } finally {
+            metrics.stopTiming(DisguiseMetrics.Timer.CONNECTION_LISTENER, start);
+        }
     }
 
     @Listener
     public void onClientDisconnect(ClientConnectionEvent.Disconnect event, @First Player player) {
-        UUID uuid = player.getUniqueId();
-        if (disguiseManager.isDisguised(uuid)) {
-            Disguise disguise = disguiseManager.getDisguise(uuid);
-            disguise.clientDisconnectCallback(event, player);
+        long start = metrics.startTiming();
+        try {
+            UUID uuid = player.getUniqueId();
+            if (disguiseManager.isDisguised(uuid)) {
+                Disguise disguise = disguiseManager.getDisguise(uuid);
+                disguise.clientDisconnectCallback(event, player);
+            }
+
+            disguiseManager.getBroadcaster().removeViewer(uuid);
+        } finally {
+            metrics.stopTiming(DisguiseMetrics.Timer.CONNECTION_LISTENER, start);
         }
     }
 
     @Listener
-    public void onMoveEvent(MoveEntityEvent event, @First Player player) {
-        // disguiseManager.sendBlockChanges(player);
-//        disguiseManager.sendBlockChangesOptimally(player, event.getFromTransform().getLocation(), event.getToTransform().getLocation());
+    public void onRespawn(RespawnPlayerEvent event) {
+        // Respawning reloads the world on the client, which throws away every disguise block it was sent
+        disguiseManager.getBroadcaster().invalidate(event.getTargetEntity().getUniqueId());
+    }
+
+    @Listener
+    public void onLoadWorld(LoadWorldEvent event) {
+        disguiseManager.getOrCreateShard(event.getTargetWorld().getUniqueId());
+    }
+
+    @Listener
+    public void onUnloadWorld(UnloadWorldEvent event) {
+        // Only disguises of offline players can be left in a world that unloads
+        disguiseManager.dropShard(event.getTargetWorld().getUniqueId());
+    }
 
+    @Listener
+    public void onMoveEvent(MoveEntityEvent event, @First Player player) {
+        // Most moves are by players that are not disguised, which only cost this lookup and are not timed
         UUID uuid = player.getUniqueId();
-        if (disguiseManager.isDisguised(uuid)) {
-            Disguise disguise = disguiseManager.getDisguise(uuid);
-            disguise.moveCallback(event, player);
+        if (!disguiseManager.isDisguisedFast(uuid)) {
+            return;
+        }
+
+        long start = metrics.startTiming();
+        try {
+            disguiseManager.getDisguise(uuid).moveCallback(event, player);
+        } finally {
+            metrics.stopTiming(DisguiseMetrics.Timer.MOVE_LISTENER, start);
         }
     }
 
@@ -136,101 +191,114 @@ public class DisguiseListener {
 
     @Listener
     public void onInteractEntity(InteractEntityEvent event, @First Player player) {
-        if (disguiseManager.isDisguised(player.getUniqueId())) {
-            return;
-        }
-
-        Entity entity = event.getTargetEntity();
-        if (entity instanceof Player && disguiseManager.isDisguised(entity.getUniqueId())) {
-            Player targetPlayer = (Player) entity;
-
-            if (!isKillable(targetPlayer)) {
+        long start = metrics.startTiming();
+        try {
+            if (disguiseManager.isDisguised(player.getUniqueId())) {
                 return;
             }
 
-            BlockRay<World> blockRay = BlockRay.from(player).distanceLimit(5).build();
-            while (blockRay.hasNext()) {
-                BlockRayHit<World> blockRayHit = blockRay.next();
-                Vector3i blockPos = blockRayHit.getBlockPosition();
+            Entity entity = event.getTargetEntity();
+            if (entity instanceof Player && disguiseManager.isDisguised(entity.getUniqueId())) {
+                Player targetPlayer = (Player) entity;
+
+                if (!isKillable(targetPlayer)) {
+                    return;
+                }
 
                 Disguise disguise = disguiseManager.getDisguise(targetPlayer.getUniqueId());
-                Location<World> disguiseLoc = disguise.getLocation();
-                if (    disguise.getState() == Disguise.State.SOLID
-                        && disguiseLoc.getBlockPosition().equals(blockPos)
-                        && disguiseLoc.getExtent().getUniqueId().equals(player.getWorld().getUniqueId())) {
+                if (disguise.getState() != DisguiseState.SOLID) {
+                    return;
+                }
 
+                UUID world = player.getWorld().getUniqueId();
+                if (!disguise.getWorld().equals(world)) {
+                    return;
+                }
+
+                // Line of sight from the eyes, in primitives. The eye location accounts for sneaking
+                Optional<EyeLocationProperty> eyeLocation = player.getProperty(EyeLocationProperty.class);
+                Vector3d eyes = eyeLocation.isPresent() ? eyeLocation.get().getValue()
+                        : player.getLocation().getPosition().add(0, DisguiseRays.EYE_HEIGHT, 0);
+                Vector3d rotation = player.getHeadRotation();
+                double pitch = Math.toRadians(rotation.getX());
+                double yaw = Math.toRadians(rotation.getY());
+                double ox = eyes.getX();
+                double oy = eyes.getY();
+                double oz = eyes.getZ();
+                double dx = -Math.sin(yaw) * Math.cos(pitch);
+                double dy = -Math.sin(pitch);
+                double dz = Math.cos(yaw) * Math.cos(pitch);
+
+                // Only a swing through the target's own block counts, which is a single box test
+                if (DisguiseRays.hitsBlock(ox, oy, oz, dx, dy, dz, DisguiseRays.REACH, disguise.getBlockX(), disguise.getBlockY(), disguise.getBlockZ())) {
                     targetPlayer.offer(Keys.HEALTH, 0.0);
                     player.playSound(SoundTypes.ENTITY_PLAYER_HURT, targetPlayer.getLocation().getPosition(), 1.0);
-                    return;
+                    BlockDisguises.debug(DebugChannel.INTERACTION, () -> player.getName() + " hit the solid disguise of " + targetPlayer.getName());
                 }
-            }
 
-        } else {
+            } else {
 
-            Optional<UUID> disguiseOwner = entity.get(BlockDisguises.DISGUISE_OWNER);
-            if (disguiseOwner.isPresent()) {
+                Optional<UUID> disguiseOwner = entity.get(BlockDisguises.DISGUISE_OWNER);
+                if (disguiseOwner.isPresent()) {
 
-                if (disguiseManager.isDisguised(disguiseOwner.get())) {
+                    if (disguiseManager.isDisguised(disguiseOwner.get())) {
 
-                    Optional<User> user = disguiseManager.getDisguise(disguiseOwner.get()).getOwnerUser();
-                    if (user.isPresent()) {
-                        Optional<Player> owner = user.get().getPlayer();
+                        Optional<Player> owner = disguiseManager.getDisguise(disguiseOwner.get()).getOwnerPlayer();
                         if (owner.isPresent()) {
                             if (!isKillable(owner.get())) {
                                 return;
                             }
                             owner.get().offer(Keys.HEALTH, 0.0);
                             player.playSound(SoundTypes.ENTITY_PLAYER_HURT, owner.get().getLocation().getPosition(), 1.0);
+                            BlockDisguises.debug(DebugChannel.INTERACTION, () -> player.getName() + " hit the moving disguise of " + owner.get().getName());
                         }
-                    }
 
-                } else {
-                    entity.remove();
+                    } else {
+                        entity.remove();
+                    }
                 }
-            }
 
+            }
+        } finally {
+            metrics.stopTiming(DisguiseMetrics.Timer.INTERACT_ENTITY_LISTENER, start);
         }
-
     }
 
     @Listener
     public void onInteractBlock(InteractBlockEvent event, @First Player player) {
+        long start = metrics.startTiming();
+        try {
+            if (!event.getTargetBlock().getLocation().isPresent()) {
+                return;
+            }
 
-        if (disguiseManager.isDisguised(player.getUniqueId())) {
-            return;
-        }
-
-        if (!event.getTargetBlock().getLocation().isPresent()) {
-            return;
-        }
-
-        Vector3i blockPos = event.getTargetBlock().getPosition();
-
-        for (UUID disguised : disguiseManager.getAllDisguised()) {
-
-            Disguise disguise = disguiseManager.getDisguise(disguised);
-            Location<World> disguiseLoc = disguise.getLocation();
-            if (    disguise.getState() == Disguise.State.SOLID
-                    && disguiseLoc.getBlockPosition().equals(blockPos)
-                    && disguiseLoc.getExtent().getUniqueId().equals(event.getTargetBlock().getWorldUniqueId())) {
+            // The server answers clicks with the real blocks, which may overwrite disguise blocks on the client
+            Vector3i blockPos = event.getTargetBlock().getPosition();
+            disguiseManager.getBroadcaster().forgetAround(player.getUniqueId(), blockPos.getX(), blockPos.getY(), blockPos.getZ());
 
-//                disguise.sendBlockChange(player);
+            if (disguiseManager.isDisguised(player.getUniqueId())) {
+                return;
+            }
 
-                if (!disguiseManager.isDisguised(player.getUniqueId())) {
-                    assert disguise.getOwnerUser().get().getPlayer().isPresent();
-                    Player disguiseOwner = disguise.getOwnerUser().get().getPlayer().get();
+            Disguise disguise = disguiseManager.getSolidDisguiseAt(event.getTargetBlock().getWorldUniqueId(), blockPos);
+            if (disguise == null) {
+                return;
+            }
 
-                    if (!isKillable(disguiseOwner)) {
-                        return;
-                    }
+    //        disguise.sendBlockChange(player);
 
-                    disguiseOwner.offer(Keys.HEALTH, 0.0);
-                    player.playSound(SoundTypes.ENTITY_PLAYER_HURT, player.getLocation().getPosition(), 1.0);
-                }
+            assert disguise.getOwnerPlayer().isPresent();
+            Player disguiseOwner = disguise.getOwnerPlayer().get();
 
-                break;
+            if (!isKillable(disguiseOwner)) {
+                return;
             }
 
+            disguiseOwner.offer(Keys.HEALTH, 0.0);
+            player.playSound(SoundTypes.ENTITY_PLAYER_HURT, player.getLocation().getPosition(), 1.0);
+            BlockDisguises.debug(DebugChannel.INTERACTION, () -> player.getName() + " hit the solid disguise of " + disguiseOwner.getName());
+        } finally {
+            metrics.stopTiming(DisguiseMetrics.Timer.INTERACT_BLOCK_LISTENER, start);
         }
     }
 }
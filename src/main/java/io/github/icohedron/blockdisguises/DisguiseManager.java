@@ -1,60 +1,414 @@
 package io.github.icohedron.blockdisguises;
 
-import ninja.leaping.configurate.ConfigurationNode;
+import com.flowpowered.math.vector.Vector3i;
+import io.github.icohedron.blockdisguises.api.DisguiseState;
+import io.github.icohedron.blockdisguises.api.DisguiseView;
+import io.github.icohedron.blockdisguises.platform.Platform;
+import io.github.icohedron.blockdisguises.platform.SpongePlatform;
+import org.spongepowered.api.Sponge;
 import org.spongepowered.api.block.BlockState;
 import org.spongepowered.api.entity.living.player.Player;
 import org.spongepowered.api.world.Location;
 import org.spongepowered.api.world.World;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class DisguiseManager {
 
-    private Map<UUID, Disguise> disguises; // <Player UUID, Player Name>
+    private Map<UUID, Disguise> disguises; // <Player UUID, Disguise>, only modified on the main thread
+    private UuidSet disguisedPlayers; // Keys of disguises, for lookups on the main thread that must not allocate
+    private final Platform platform; // Players, block changes, entities and scheduling of the server
 
-    // Configuration variables
-    private int solidifyDelay; // Amount of delay, in game ticks, before a disguise turns into a solid block
+    // Copy-on-write views of every disguise, republished by the main thread at the end of every tick a disguise changed
+    // Safe to read from async tasks and other plugins without locking
+    private volatile Map<UUID, DisguiseView> views = Collections.emptyMap();
+    private volatile Map<UUID, List<DisguiseView>> viewsByWorld = Collections.emptyMap();
+    private boolean viewsDirty;
+    private DisguiseMetrics metrics; // Counters and timings for '/bd stats'
+    private Set<UUID> disguiseEntities; // UUIDs of the armor stands and falling blocks currently used by disguises
+    private Map<UUID, WorldShard> shards; // <World UUID, Disguises, solid index and players of that world>
+    private BlockChangeBroadcaster broadcaster; // Sends solid disguise blocks to nearby players
+    private SolidifyScheduler solidifyScheduler; // Counts down every disguise until it turns solid
+    private ArmorStandMover armorStandMover; // Moves the armor stands of mobile disguises once per tick
+    private EntityPool entityPool; // Hidden armor stand and falling block pairs kept for reuse
+    private EntityMobileRenderer entityRenderer; // Shows mobile disguises as armor stands carrying falling blocks
+    private VirtualMobileRenderer virtualRenderer; // Shows mobile disguises as fake blocks, without entities
+    private BulkOperationQueue bulkOperations; // Disguise operations requested through the DisguiseService
+    private BlockStateResolver blockStateResolver; // Block states of '/bd disguise', resolved once per block type and traits
 
-    public DisguiseManager(ConfigurationNode config) {
-        disguises = new HashMap<>();
-        updateConfig(config);
+    private DisguiseSnapshotStore snapshotStore; // Saves disguises across restarts, null if persistence is disabled
+    private Map<UUID, DisguiseSnapshotStore.StoredDisguise> pendingDisguises; // <Player UUID, Saved disguise> of players that have not joined since the restart
+
+    private DisguiseConfig config; // Current configuration, only replaced as a whole on the main thread
+    private MobileRenderer mobileRenderer; // Renderer used for disguises that turn mobile, chosen by 'mobile_render_mode'
+
+    public DisguiseManager(DisguiseConfig config) {
+        this(config, new SpongePlatform());
+    }
+
+    public DisguiseManager(DisguiseConfig config, Platform platform) {
+        this.platform = platform;
+        disguises = new ConcurrentHashMap<>();
+        disguisedPlayers = new UuidSet();
+        metrics = new DisguiseMetrics();
+        disguiseEntities = new HashSet<>();
+        shards = new HashMap<>();
+        broadcaster = new BlockChangeBroadcaster(this);
+        solidifyScheduler = new SolidifyScheduler();
+        armorStandMover = new ArmorStandMover();
+        bulkOperations = new BulkOperationQueue();
+        entityPool = new EntityPool(this);
+        entityRenderer = new EntityMobileRenderer(this);
+        virtualRenderer = new VirtualMobileRenderer(this);
+        blockStateResolver = new BlockStateResolver();
+        pendingDisguises = new HashMap<>();
+        applyConfig(config);
     }
 
-    public void updateConfig(ConfigurationNode config) {
-        solidifyDelay = config.getNode("solidify_delay").getInt(60);
+    // Swaps in a configuration that was already validated. Main thread only
+    public void applyConfig(DisguiseConfig config) {
+        this.config = config;
+
+        // Disguises that are already mobile keep their rendering until they turn solid
+        mobileRenderer = config.getMobileRenderMode() == DisguiseConfig.MobileRenderMode.VIRTUAL ? virtualRenderer : entityRenderer;
     }
 
     public void disguise(Player player, BlockState blockState) {
-        disguises.put(player.getUniqueId(), new Disguise(player, blockState));
+        pendingDisguises.remove(player.getUniqueId());
+        Disguise disguise = new Disguise(player, blockState);
+        disguises.put(player.getUniqueId(), disguise);
+        disguisedPlayers.add(player.getUniqueId());
+        getOrCreateShard(disguise.getWorld()).add(disguise);
+        markDirty(); // Views are republished at the end of the tick
     }
 
     public void undisguise(UUID player) {
+        remove(player); // Views are republished at the end of the tick
+    }
+
+    public void undisguiseAll() {
+        for (UUID disguised : disguises.keySet()) { // Removing while iterating is safe on a ConcurrentHashMap
+            remove(disguised);
+        }
+        pendingDisguises.clear();
+        markDirty();
+        publishViews(); // Right away, since the server may be stopping and no tick may follow
+        broadcaster.flush(); // Resets may otherwise never go out if the server is stopping
+    }
+
+    // Undisguises every player disguised in the given world. Returns how many were undisguised
+    public int undisguiseWorld(UUID world) {
+        WorldShard shard = shards.get(world);
+        if (shard == null || shard.getDisguises().isEmpty()) {
+            return 0;
+        }
+
+        List<UUID> players = new ArrayList<>(shard.getDisguises().keySet());
+        for (UUID player : players) {
+            remove(player);
+        }
+        return players.size();
+    }
+
+    private void remove(UUID player) {
         Disguise disguise = disguises.remove(player);
         assert disguise != null;
+        disguisedPlayers.remove(player);
         disguise.dispose();
+        WorldShard shard = shards.get(disguise.getWorld());
+        if (shard != null) {
+            shard.remove(disguise);
+        }
+        markDirty();
     }
 
-    public void undisguiseAll() {
-        for (UUID disguised : disguises.keySet()) {
-            undisguise(disguised);
+    // Loads the disguises saved before the last shutdown. They are recreated as their owners join
+    public void enablePersistence(Path file) {
+        snapshotStore = new DisguiseSnapshotStore(file);
+        for (DisguiseSnapshotStore.StoredDisguise stored : snapshotStore.load()) {
+            pendingDisguises.put(stored.getOwner(), stored);
+        }
+    }
+
+    // Recreates the saved disguise of a player that just joined. Returns whether there was one
+    public boolean restore(Player player) {
+        DisguiseSnapshotStore.StoredDisguise stored = pendingDisguises.remove(player.getUniqueId());
+        if (stored == null) {
+            return false;
+        }
+
+        Optional<BlockState> blockState = Sponge.getRegistry().getType(BlockState.class, stored.getBlockStateId());
+        if (!blockState.isPresent()) {
+            BlockDisguises.getInstance().getLogger().warn("Dropping saved disguise of " + player.getName() + ": unknown block state '" + stored.getBlockStateId() + "'");
+            markDirty();
+            return false;
+        }
+
+        disguise(player, blockState.get());
+
+        // Players that were solid and have not moved since turn solid again right away
+        Location<World> location = player.getLocation();
+        if (stored.getState() == DisguiseState.SOLID && stored.getWorld().equals(location.getExtent().getUniqueId())
+                && stored.getPosition() == BlockKeys.pack(location.getBlockX(), location.getBlockY(), location.getBlockZ())) {
+            solidifyScheduler.schedule(disguises.get(player.getUniqueId()), 1);
+        }
+        return true;
+    }
+
+    // Called whenever something that is saved across restarts changed
+    void markDirty() {
+        if (snapshotStore != null) {
+            snapshotStore.markDirty();
+        }
+        viewsDirty = true;
+    }
+
+    // Called when a disguise moved to another block, which is not saved but is visible through the views
+    void markViewsDirty() {
+        viewsDirty = true;
+    }
+
+    private void publishViews() {
+        Map<UUID, DisguiseView> newViews = new HashMap<>(disguises.size() * 2);
+        Map<UUID, List<DisguiseView>> newViewsByWorld = new HashMap<>();
+        for (Disguise disguise : disguises.values()) {
+            DisguiseView view = new DisguiseView(disguise.getOwner(), disguise.getOwnerName().orElse(disguise.getOwner().toString()),
+                    disguise.getBlockState(), disguise.getState(), disguise.getWorld(), disguise.getBlockX(), disguise.getBlockY(), disguise.getBlockZ());
+            newViews.put(view.getOwner(), view);
+            newViewsByWorld.computeIfAbsent(view.getWorld(), w -> new ArrayList<>()).add(view);
+        }
+        newViewsByWorld.replaceAll((world, worldViews) -> Collections.unmodifiableList(worldViews));
+
+        viewsByWorld = Collections.unmodifiableMap(newViewsByWorld);
+        views = Collections.unmodifiableMap(newViews);
+        viewsDirty = false;
+    }
+
+    // Immutable views of every disguise as of the end of the last tick (or the last disguise/undisguise). Safe from any thread
+    public Map<UUID, DisguiseView> getViews() {
+        return views;
+    }
+
+    public Optional<DisguiseView> getView(UUID player) {
+        return Optional.ofNullable(views.get(player));
+    }
+
+    public List<DisguiseView> getViews(UUID world) {
+        return viewsByWorld.getOrDefault(world, Collections.emptyList());
+    }
+
+    List<DisguiseSnapshotStore.StoredDisguise> createSnapshot() {
+        List<DisguiseSnapshotStore.StoredDisguise> snapshot = new ArrayList<>(disguises.size() + pendingDisguises.size());
+        for (Disguise disguise : disguises.values()) {
+            snapshot.add(new DisguiseSnapshotStore.StoredDisguise(disguise.getOwner(), disguise.getBlockState().getId(), disguise.getWorld(),
+                    BlockKeys.pack(disguise.getBlockX(), disguise.getBlockY(), disguise.getBlockZ()), disguise.getState()));
+        }
+        snapshot.addAll(pendingDisguises.values());
+        return snapshot;
+    }
+
+    // Writes every disguise to disk right away. Called on shutdown, before the disguises are removed
+    public void saveSnapshot() {
+        if (snapshotStore != null) {
+            snapshotStore.close(createSnapshot());
         }
     }
 
+    // Called once every tick
+    public void tick() {
+        long start = metrics.startTiming();
+        bulkOperations.tick(config.getBulkOperationsPerTick());
+        solidifyScheduler.tick();
+        armorStandMover.tick();
+        entityPool.tick();
+        broadcaster.tick();
+        if (snapshotStore != null) {
+            snapshotStore.tick(this);
+        }
+        if (viewsDirty) {
+            publishViews(); // At most once per tick, however many disguises changed
+        }
+        bulkOperations.completeFinished();
+        metrics.stopTiming(DisguiseMetrics.Timer.TICK, start);
+        metrics.endTick();
+    }
+
     public void sendBlockChanges(Player player) {
-        disguises.entrySet().forEach(uuidDisguiseEntry -> uuidDisguiseEntry.getValue().sendBlockChange(player));
+        broadcaster.sendBlockChanges(player);
     }
 
     // public void sendBlockChangesOptimally(Player player, Location<World> from, Location<World> to) {
     //     disguises.entrySet().forEach(uuidDisguiseEntry -> uuidDisguiseEntry.getValue().sendBlockChangeOptimally(player, from, to));
     // }
 
+    // Called by a disguise when it spawns or removes one of its entities
+    void trackEntity(UUID entity) {
+        disguiseEntities.add(entity);
+        metrics.increment(DisguiseMetrics.Counter.ENTITY_SPAWNS);
+    }
+
+    void untrackEntity(UUID entity) {
+        disguiseEntities.remove(entity);
+        metrics.increment(DisguiseMetrics.Counter.ENTITY_REMOVALS);
+    }
+
+    // Whether the given entity is an armor stand or falling block currently in use by a disguise
+    public boolean isDisguiseEntity(UUID entity) {
+        return disguiseEntities.contains(entity);
+    }
+
+    // Called by a disguise when it turns solid at its current location
+    void indexSolid(Disguise disguise) {
+        indexBlock(disguise, disguise.getWorld(), disguise.getBlockX(), disguise.getBlockY(), disguise.getBlockZ());
+    }
+
+    // Called by a disguise when it stops being solid at its current location
+    void unindexSolid(Disguise disguise) {
+        unindexBlock(disguise, disguise.getWorld(), disguise.getBlockX(), disguise.getBlockY(), disguise.getBlockZ());
+    }
+
+    // Puts a disguise's block into its world's solid index, so it is sent to players and can be hit
+    // Returns false, and leaves the index alone, if another disguise already occupies the block
+    boolean indexBlock(Disguise disguise, UUID world, int x, int y, int z) {
+        SolidDisguiseIndex solidIndex = getOrCreateShard(world).getSolidIndex();
+        Disguise occupant = solidIndex.get(x, y, z);
+        if (occupant != null && occupant != disguise) {
+            return false;
+        }
+
+        solidIndex.put(x, y, z, disguise);
+        return true;
+    }
+
+    void unindexBlock(Disguise disguise, UUID world, int x, int y, int z) {
+        WorldShard shard = shards.get(world);
+        if (shard != null) {
+            shard.getSolidIndex().remove(x, y, z, disguise);
+        }
+    }
+
+    // Puts the fake block of a virtually rendered mobile disguise into its world's virtual index, so it is sent to players
+    // Unlike a solid disguise's block it can't be hit and does not keep other disguises from turning solid
+    // Returns false, and leaves the index alone, if another fake block is already there
+    boolean indexVirtualBlock(Disguise disguise, UUID world, int x, int y, int z) {
+        SolidDisguiseIndex virtualIndex = getOrCreateShard(world).getVirtualIndex();
+        Disguise occupant = virtualIndex.get(x, y, z);
+        if (occupant != null && occupant != disguise) {
+            return false;
+        }
+
+        virtualIndex.put(x, y, z, disguise);
+        return true;
+    }
+
+    void unindexVirtualBlock(Disguise disguise, UUID world, int x, int y, int z) {
+        WorldShard shard = shards.get(world);
+        if (shard != null) {
+            shard.getVirtualIndex().remove(x, y, z, disguise);
+        }
+    }
+
+    // Returns the solid disguise occupying the given block, or null if there is none
+    public Disguise getSolidDisguiseAt(UUID world, Vector3i blockPosition) {
+        return getSolidDisguiseAt(world, blockPosition.getX(), blockPosition.getY(), blockPosition.getZ());
+    }
+
+    public Disguise getSolidDisguiseAt(UUID world, int x, int y, int z) {
+        WorldShard shard = shards.get(world);
+        return shard == null ? null : shard.getSolidIndex().get(x, y, z);
+    }
+
+    // Creates the shard of a world if it does not exist yet, e.g. when the world loads
+    public WorldShard getOrCreateShard(UUID world) {
+        WorldShard shard = shards.get(world);
+        if (shard == null) {
+            shard = new WorldShard(world);
+            shards.put(world, shard);
+        }
+        return shard;
+    }
+
+    // Called when a world unloads. Disguises left in it, of players that are offline, are removed along with it
+    public void dropShard(UUID world) {
+        undisguiseWorld(world);
+        entityPool.dropWorld(world);
+        shards.remove(world);
+    }
+
+    // The shard of the given world, or null if nothing has happened in that world yet
+    public WorldShard getShard(UUID world) {
+        return shards.get(world);
+    }
+
+    public Collection<WorldShard> getShards() {
+        return shards.values();
+    }
+
+    public Platform getPlatform() {
+        return platform;
+    }
+
+    public DisguiseMetrics getMetrics() {
+        return metrics;
+    }
+
+    public EntityPool getEntityPool() {
+        return entityPool;
+    }
+
+    public MobileRenderer getMobileRenderer() {
+        return mobileRenderer;
+    }
+
+    public BlockStateResolver getBlockStateResolver() {
+        return blockStateResolver;
+    }
+
+    // <Preset name, Block state> of every preset in the configuration
+    public Map<String, BlockState> getPresets() {
+        return config.getPresets();
+    }
+
+    public DisguiseConfig getConfig() {
+        return config;
+    }
+
+    public BulkOperationQueue getBulkOperations() {
+        return bulkOperations;
+    }
+
+    public SolidifyScheduler getSolidifyScheduler() {
+        return solidifyScheduler;
+    }
+
+    public ArmorStandMover getArmorStandMover() {
+        return armorStandMover;
+    }
+
+    public BlockChangeBroadcaster getBroadcaster() {
+        return broadcaster;
+    }
+
     public boolean isDisguised(UUID uuid) {
         return disguises.containsKey(uuid);
     }
 
+    // Same as isDisguised, but only compares primitives. Main thread only, for the listeners of frequent events
+    public boolean isDisguisedFast(UUID uuid) {
+        return disguisedPlayers.contains(uuid);
+    }
+
     public Disguise getDisguise(UUID uuid) {
         return disguises.get(uuid);
     }
@@ -63,11 +417,36 @@ public class DisguiseManager {
         return disguises.size();
     }
 
+    // Live, read-only set of disguised players. Use getViews() for a stable snapshot
     public Set<UUID> getAllDisguised() {
-        return disguises.keySet();
+        return Collections.unmodifiableSet(disguises.keySet());
     }
 
     public int getSolidifyDelay() {
-        return solidifyDelay;
+        return config.getSolidifyDelay();
+    }
+
+    public double getStillnessRadius() {
+        return config.getStillnessRadius();
+    }
+
+    public double getBreakOutDistance() {
+        return config.getBreakOutDistance();
+    }
+
+    public int getBroadcastRadius() {
+        return config.getBroadcastRadius();
+    }
+
+    public int getBulkOperationsPerTick() {
+        return config.getBulkOperationsPerTick();
+    }
+
+    public int getEntityPoolSize() {
+        return config.getEntityPoolSize();
+    }
+
+    public int getEntityPoolIdleTicks() {
+        return config.getEntityPoolIdleTicks();
     }
 }
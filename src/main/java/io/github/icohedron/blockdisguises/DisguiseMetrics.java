@@ -0,0 +1,113 @@
+package io.github.icohedron.blockdisguises;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+// Counters and timings for what the plugin costs per tick. Recorded and read on the main thread only
+public class DisguiseMetrics {
+
+    public enum Counter {
+        BLOCK_CHANGES, // Block changes sent to players
+        BLOCK_RESETS, // Block resets sent to players
+        MOVE_CALLBACKS, // Move events of disguised players handled
+        TRANSITIONS, // Disguises turning solid, mobile or going into the None state
+        ENTITY_SPAWNS, // Armor stands and falling blocks spawned
+        ENTITY_REMOVALS, // Armor stands and falling blocks removed
+        DEFERRED_SYNCS // Players whose block changes waited for a later tick because the broadcast budget ran out
+    }
+
+    public enum Timer {
+        TICK, // The plugin's per-tick task: countdowns, armor stand moves and block change broadcast
+        MOVE_LISTENER, // Only moves of disguised players
+        INTERACT_BLOCK_LISTENER,
+        INTERACT_ENTITY_LISTENER,
+        CHUNK_LOAD_LISTENER,
+        CONNECTION_LISTENER
+    }
+
+    static final int WINDOW_TICKS = 1200; // Per tick counts are kept for the last minute
+    private static final int TIMING_SAMPLES = 1024; // Latest durations kept per timer for percentiles
+
+    private final long[][] perTick = new long[Counter.values().length][WINDOW_TICKS];
+    private final long[] totals = new long[Counter.values().length];
+    private int tickIndex;
+    private long ticks;
+
+    private final long[][] samples = new long[Timer.values().length][TIMING_SAMPLES]; // Durations in nanoseconds
+    private final long[] timed = new long[Timer.values().length]; // Amount of durations recorded per timer
+
+    public void increment(Counter counter) {
+        add(counter, 1);
+    }
+
+    public void add(Counter counter, long amount) {
+        perTick[counter.ordinal()][tickIndex] += amount;
+        totals[counter.ordinal()] += amount;
+    }
+
+    // Returns the start time to pass to stopTiming
+    public long startTiming() {
+        return System.nanoTime();
+    }
+
+    public void stopTiming(Timer timer, long start) {
+        long duration = System.nanoTime() - start;
+        int index = timer.ordinal();
+        samples[index][(int) (timed[index] % TIMING_SAMPLES)] = duration;
+        timed[index]++;
+    }
+
+    // Called at the end of every tick, after the broadcast
+    public void endTick() {
+        ticks++;
+        tickIndex = (tickIndex + 1) % WINDOW_TICKS;
+        for (long[] counter : perTick) {
+            counter[tickIndex] = 0;
+        }
+    }
+
+    public MetricsSnapshot snapshot() {
+        int windowTicks = (int) Math.min(ticks, WINDOW_TICKS - 1);
+        int lastTick = (tickIndex + WINDOW_TICKS - 1) % WINDOW_TICKS;
+
+        Map<Counter, MetricsSnapshot.CounterSnapshot> counters = new EnumMap<>(Counter.class);
+        for (Counter counter : Counter.values()) {
+            long[] series = perTick[counter.ordinal()];
+
+            long windowSum = 0;
+            long lastSecond = 0;
+            for (int i = 1; i <= windowTicks; i++) {
+                long value = series[(tickIndex + WINDOW_TICKS - i) % WINDOW_TICKS];
+                windowSum += value;
+                if (i <= 20) {
+                    lastSecond += value;
+                }
+            }
+
+            counters.put(counter, new MetricsSnapshot.CounterSnapshot(totals[counter.ordinal()], ticks == 0 ? 0 : series[lastTick],
+                    windowTicks == 0 ? 0 : (double) windowSum / windowTicks, lastSecond));
+        }
+
+        Map<Timer, MetricsSnapshot.TimerSnapshot> timers = new EnumMap<>(Timer.class);
+        for (Timer timer : Timer.values()) {
+            int index = timer.ordinal();
+            int recorded = (int) Math.min(timed[index], TIMING_SAMPLES);
+            long[] sorted = Arrays.copyOf(samples[index], recorded);
+            Arrays.sort(sorted);
+
+            timers.put(timer, new MetricsSnapshot.TimerSnapshot(timed[index], percentileMillis(sorted, 0.50), percentileMillis(sorted, 0.99),
+                    recorded == 0 ? 0 : sorted[recorded - 1] / 1_000_000.0));
+        }
+
+        return new MetricsSnapshot(ticks, counters, timers);
+    }
+
+    private static double percentileMillis(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1_000_000.0;
+    }
+}
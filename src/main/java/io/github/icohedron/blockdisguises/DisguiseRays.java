@@ -0,0 +1,59 @@
+package io.github.icohedron.blockdisguises;
+
+// Hit test between a player's line of sight and a disguise block, on primitive coordinates
+// Rays start at the origin and run along a normalized direction, so distances along the ray are in blocks
+public final class DisguiseRays {
+
+    public static final double EYE_HEIGHT = 1.62; // Height of a standing player's eyes, for when their eye location is unknown
+    public static final double REACH = 5.0; // How far away, in blocks, a player can hit a disguise
+
+    private DisguiseRays() {
+    }
+
+    // Whether the ray passes through the block at bx, by, bz within maxDistance. Slab test against the block's box
+    public static boolean hitsBlock(double ox, double oy, double oz, double dx, double dy, double dz, double maxDistance,
+                                    int bx, int by, int bz) {
+        double tMin = 0;
+        double tMax = maxDistance;
+
+        // X slab
+        if (dx == 0) {
+            if (ox < bx || ox > bx + 1) {
+                return false;
+            }
+        } else {
+            double t1 = (bx - ox) / dx;
+            double t2 = (bx + 1 - ox) / dx;
+            tMin = Math.max(tMin, Math.min(t1, t2));
+            tMax = Math.min(tMax, Math.max(t1, t2));
+            if (tMin > tMax) {
+                return false;
+            }
+        }
+
+        // Y slab
+        if (dy == 0) {
+            if (oy < by || oy > by + 1) {
+                return false;
+            }
+        } else {
+            double t1 = (by - oy) / dy;
+            double t2 = (by + 1 - oy) / dy;
+            tMin = Math.max(tMin, Math.min(t1, t2));
+            tMax = Math.min(tMax, Math.max(t1, t2));
+            if (tMin > tMax) {
+                return false;
+            }
+        }
+
+        // Z slab
+        if (dz == 0) {
+            return oz >= bz && oz <= bz + 1;
+        }
+        double t1 = (bz - oz) / dz;
+        double t2 = (bz + 1 - oz) / dz;
+        tMin = Math.max(tMin, Math.min(t1, t2));
+        tMax = Math.min(tMax, Math.max(t1, t2));
+        return tMin <= tMax;
+    }
+}
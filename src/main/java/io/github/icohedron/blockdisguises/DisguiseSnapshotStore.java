@@ -0,0 +1,164 @@
+package io.github.icohedron.blockdisguises;
+
+import io.github.icohedron.blockdisguises.api.DisguiseState;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+// Saves every disguise to a compact binary file so disguises survive server restarts
+// Changes are written asynchronously once nothing has changed for a moment, and once more synchronously on shutdown
+public class DisguiseSnapshotStore {
+
+    // A disguise as it is written to disk
+    public static final class StoredDisguise {
+        private final UUID owner;
+        private final String blockStateId;
+        private final UUID world;
+        private final long position; // Packed with BlockKeys
+        private final DisguiseState state;
+
+        public StoredDisguise(UUID owner, String blockStateId, UUID world, long position, DisguiseState state) {
+            this.owner = owner;
+            this.blockStateId = blockStateId;
+            this.world = world;
+            this.position = position;
+            this.state = state;
+        }
+
+        public UUID getOwner() {
+            return owner;
+        }
+
+        public String getBlockStateId() {
+            return blockStateId;
+        }
+
+        public UUID getWorld() {
+            return world;
+        }
+
+        public long getPosition() {
+            return position;
+        }
+
+        public DisguiseState getState() {
+            return state;
+        }
+    }
+
+    private static final int MAGIC = 0x42444953; // "BDIS"
+    private static final byte VERSION = 1;
+    private static final int DEBOUNCE_TICKS = 40; // Ticks without changes before the file is written
+
+    private final Path file;
+
+    private boolean dirty;
+    private int ticksSinceChange;
+    private boolean closed; // Set once the final snapshot has been written on shutdown
+
+    private long submitted; // Sequence number of the latest snapshot handed to a writer
+    private long written; // Sequence number of the latest snapshot on disk, guarded by this
+
+    public DisguiseSnapshotStore(Path file) {
+        this.file = file;
+    }
+
+    public List<StoredDisguise> load() {
+        if (!Files.exists(file)) {
+            return Collections.emptyList();
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                BlockDisguises.getInstance().getLogger().error("Disguise snapshot '" + file + "' is not in a known format, ignoring it");
+                return Collections.emptyList();
+            }
+
+            DisguiseState[] states = DisguiseState.values();
+            int count = in.readInt();
+            List<StoredDisguise> disguises = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                UUID owner = new UUID(in.readLong(), in.readLong());
+                String blockStateId = in.readUTF();
+                UUID world = new UUID(in.readLong(), in.readLong());
+                long position = in.readLong();
+                DisguiseState state = states[in.readByte()];
+                disguises.add(new StoredDisguise(owner, blockStateId, world, position, state));
+            }
+            return disguises;
+        } catch (IOException | ArrayIndexOutOfBoundsException e) {
+            BlockDisguises.getInstance().getLogger().error("Failed to read disguise snapshot '" + file + "'", e);
+            return Collections.emptyList();
+        }
+    }
+
+    public void markDirty() {
+        if (!closed) {
+            dirty = true;
+            ticksSinceChange = 0;
+        }
+    }
+
+    // Called once every tick with the disguises to write, which are only collected when a write is due
+    public void tick(DisguiseManager disguiseManager) {
+        if (!dirty || closed || ++ticksSinceChange < DEBOUNCE_TICKS) {
+            return;
+        }
+
+        dirty = false;
+        List<StoredDisguise> snapshot = disguiseManager.createSnapshot();
+        long sequence = ++submitted;
+        disguiseManager.getPlatform().runAsync(() -> write(snapshot, sequence));
+    }
+
+    // Writes the final snapshot on the calling thread. Nothing is written afterwards
+    public void close(Collection<StoredDisguise> snapshot) {
+        write(snapshot, ++submitted);
+        closed = true;
+    }
+
+    private synchronized void write(Collection<StoredDisguise> snapshot, long sequence) {
+        if (sequence <= written) {
+            return; // A newer snapshot has already been written
+        }
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(file.getParent());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                out.writeInt(MAGIC);
+                out.writeByte(VERSION);
+                out.writeInt(snapshot.size());
+                for (StoredDisguise disguise : snapshot) {
+                    out.writeLong(disguise.owner.getMostSignificantBits());
+                    out.writeLong(disguise.owner.getLeastSignificantBits());
+                    out.writeUTF(disguise.blockStateId);
+                    out.writeLong(disguise.world.getMostSignificantBits());
+                    out.writeLong(disguise.world.getLeastSignificantBits());
+                    out.writeLong(disguise.position);
+                    out.writeByte(disguise.state.ordinal());
+                }
+            }
+            try {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING); // Some file systems can't replace atomically
+            }
+            written = sequence;
+        } catch (IOException e) {
+            BlockDisguises.getInstance().getLogger().error("Failed to write disguise snapshot '" + file + "'", e);
+        }
+    }
+}
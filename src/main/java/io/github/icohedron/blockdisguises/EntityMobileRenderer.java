@@ -0,0 +1,81 @@
+package io.github.icohedron.blockdisguises;
+
+import org.spongepowered.api.entity.Entity;
+import org.spongepowered.api.world.Location;
+import org.spongepowered.api.world.World;
+
+import java.util.UUID;
+
+// Renders mobile disguises as an armor stand carrying a falling block, taken from the EntityPool
+// The entities are real server entities, so every player sees them move smoothly
+public class EntityMobileRenderer implements MobileRenderer {
+
+    private static class EntityRendering implements Rendering {
+        private final DisguiseManager disguiseManager;
+        private final Disguise disguise;
+        private EntityPool.EntityPair entities; // null once hidden
+        private Entity armorStandEntity; // Cached armor stand entity, so moving it does not need a world lookup
+        private final UUID armorStand;
+        private final UUID fallingBlock;
+
+        private EntityRendering(DisguiseManager disguiseManager, Disguise disguise, EntityPool.EntityPair entities) {
+            this.disguiseManager = disguiseManager;
+            this.disguise = disguise;
+            this.entities = entities;
+            this.armorStandEntity = entities.getArmorStand();
+            this.armorStand = entities.getArmorStand().getUniqueId();
+            this.fallingBlock = entities.getFallingBlock().getUniqueId();
+        }
+
+        @Override
+        public void move() {
+            if (entities == null) {
+                return; // Entities were removed since the move was queued
+            }
+
+            if (armorStandEntity == null || armorStandEntity.isRemoved()) {
+                // The cached entity is stale if its chunk was unloaded and reloaded
+                armorStandEntity = disguiseManager.getPlatform().getEntity(disguise.getExtent(), armorStand).orElse(null);
+                if (armorStandEntity == null) {
+                    return;
+                }
+            }
+
+            disguiseManager.getPlatform().teleportEntity(armorStandEntity, disguise.getLastLocation());
+        }
+
+        @Override
+        public void hide() {
+            armorStandEntity = null;
+            if (entities == null) {
+                return; // Already removed
+            }
+
+            // Hidden and kept for reuse, or removed if the pool is full
+            disguiseManager.getEntityPool().release(disguise.getExtent(), entities);
+            entities = null;
+
+            BlockDisguises.debug(DebugChannel.ENTITY, () -> "Released armor_stand and falling_block entities of the disguise of " + disguise.describeOwner());
+        }
+
+        @Override
+        public boolean isAssociatedWith(UUID entity) {
+            return armorStand.equals(entity) || fallingBlock.equals(entity);
+        }
+    }
+
+    private final DisguiseManager disguiseManager;
+
+    public EntityMobileRenderer(DisguiseManager disguiseManager) {
+        this.disguiseManager = disguiseManager;
+    }
+
+    @Override
+    public Rendering show(Disguise disguise) {
+        Location<World> location = disguise.getLastLocation();
+        EntityPool.EntityPair entities = disguiseManager.getEntityPool().acquire(location.getExtent(), location.getPosition(), disguise.getBlockState(), disguise.getOwner());
+
+        BlockDisguises.debug(DebugChannel.ENTITY, () -> "Acquired armor_stand and falling_block entities for " + disguise.describeOwner() + "'s disguise");
+        return new EntityRendering(disguiseManager, disguise, entities);
+    }
+}
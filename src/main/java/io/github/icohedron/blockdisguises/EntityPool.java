@@ -0,0 +1,194 @@
+package io.github.icohedron.blockdisguises;
+
+import com.flowpowered.math.vector.Vector3d;
+import org.spongepowered.api.block.BlockState;
+import org.spongepowered.api.data.DataTransactionResult;
+import org.spongepowered.api.data.key.Keys;
+import org.spongepowered.api.entity.Entity;
+import org.spongepowered.api.entity.EntityTypes;
+import org.spongepowered.api.world.Location;
+import org.spongepowered.api.world.World;
+
+import io.github.icohedron.blockdisguises.data.DisguiseOwnerData;
+import io.github.icohedron.blockdisguises.platform.Platform;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+
+// Keeps armor stand and falling block pairs of disguises that turned solid around, vanished, so that
+// disguises turning mobile again reuse them instead of spawning new entities
+// Pooled pairs wait at their world's parking location, so they are not saved with the chunks hiders solidified in
+public class EntityPool {
+
+    // An armor stand with a falling block riding it
+    public static final class EntityPair {
+        private final Entity armorStand;
+        private final Entity fallingBlock;
+        private long releasedAt; // Tick at which this pair was put back into the pool
+
+        private EntityPair(Entity armorStand, Entity fallingBlock) {
+            this.armorStand = armorStand;
+            this.fallingBlock = fallingBlock;
+        }
+
+        public Entity getArmorStand() {
+            return armorStand;
+        }
+
+        public Entity getFallingBlock() {
+            return fallingBlock;
+        }
+
+        private boolean isRemoved() {
+            return armorStand.isRemoved() || fallingBlock.isRemoved();
+        }
+    }
+
+    private final DisguiseManager disguiseManager;
+    private final Platform platform;
+    private final Map<UUID, Deque<EntityPair>> idle = new HashMap<>(); // <World UUID, Pooled pairs, most recently released first>
+    private int idleCount;
+    private long currentTick;
+
+    public EntityPool(DisguiseManager disguiseManager) {
+        this.disguiseManager = disguiseManager;
+        this.platform = disguiseManager.getPlatform();
+    }
+
+    // Takes a pooled pair from the world, or spawns a new one, and shows it at the given position
+    public EntityPair acquire(World world, Vector3d position, BlockState blockState, UUID owner) {
+        Deque<EntityPair> pooled = idle.get(world.getUniqueId());
+        while (pooled != null && !pooled.isEmpty()) {
+            EntityPair pair = pooled.pollFirst();
+            idleCount--;
+            if (pair.isRemoved()) {
+                discard(pair); // Its chunk was unloaded, the chunk load sweep will remove it
+                continue;
+            }
+
+            platform.setDisguiseOwner(pair.armorStand, owner);
+            platform.setDisguiseOwner(pair.fallingBlock, owner);
+            platform.setFallingBlockState(pair.fallingBlock, blockState);
+            platform.teleportEntity(pair.armorStand, new Location<>(world, position));
+            platform.setEntityVanished(pair.armorStand, false);
+            platform.setEntityVanished(pair.fallingBlock, false);
+            return pair;
+        }
+
+        return spawn(world, position, blockState, new DisguiseOwnerData(owner));
+    }
+
+    private EntityPair spawn(World world, Vector3d position, BlockState blockState, DisguiseOwnerData disguiseOwnerData) {
+        Entity armorStandEntity = platform.spawnEntity(world, EntityTypes.ARMOR_STAND, position, armorStand -> {
+            armorStand.offer(Keys.HAS_GRAVITY, false);
+            armorStand.offer(Keys.INVISIBLE, true);
+            armorStand.offer(Keys.ARMOR_STAND_MARKER, true);
+
+            DataTransactionResult dataTransactionResult = armorStand.offer(disguiseOwnerData);
+            assert dataTransactionResult.isSuccessful();
+        });
+
+        Entity fallingBlockEntity = platform.spawnEntity(world, EntityTypes.FALLING_BLOCK, position, fallingBlock -> {
+            fallingBlock.offer(Keys.HAS_GRAVITY, false);
+            fallingBlock.offer(Keys.FALL_TIME, Integer.MAX_VALUE);
+            fallingBlock.offer(Keys.FALLING_BLOCK_STATE, blockState);
+
+            DataTransactionResult dataTransactionResult = fallingBlock.offer(disguiseOwnerData);
+            assert dataTransactionResult.isSuccessful();
+        });
+
+        platform.mountEntity(armorStandEntity, fallingBlockEntity);
+
+        disguiseManager.trackEntity(armorStandEntity.getUniqueId());
+        disguiseManager.trackEntity(fallingBlockEntity.getUniqueId());
+        return new EntityPair(armorStandEntity, fallingBlockEntity);
+    }
+
+    // Hides a pair that is no longer used and keeps it for reuse, or removes it if the pool is full
+    public void release(World world, EntityPair pair) {
+        if (pair.isRemoved()) {
+            discard(pair);
+            return;
+        }
+
+        if (idleCount >= disguiseManager.getEntityPoolSize()) {
+            remove(pair);
+            return;
+        }
+
+        platform.setEntityVanished(pair.armorStand, true);
+        platform.setEntityVanished(pair.fallingBlock, true);
+        platform.teleportEntity(pair.armorStand, platform.getParkingLocation(world)); // The falling block rides along
+        pair.releasedAt = currentTick;
+        idle.computeIfAbsent(world.getUniqueId(), w -> new ArrayDeque<>()).addFirst(pair);
+        idleCount++;
+    }
+
+    // Removes pairs that have not been reused for a while. Called once every tick
+    public void tick() {
+        currentTick++;
+        if (idleCount == 0) {
+            return;
+        }
+
+        long idleTicks = disguiseManager.getEntityPoolIdleTicks();
+        int maxSize = disguiseManager.getEntityPoolSize();
+        Iterator<Deque<EntityPair>> worlds = idle.values().iterator();
+        while (worlds.hasNext()) {
+            Deque<EntityPair> pooled = worlds.next();
+
+            // Least recently released pairs are at the end
+            while (!pooled.isEmpty() && (currentTick - pooled.peekLast().releasedAt >= idleTicks || idleCount > maxSize)) {
+                remove(pooled.pollLast());
+                idleCount--;
+            }
+
+            if (pooled.isEmpty()) {
+                worlds.remove();
+            }
+        }
+    }
+
+    // Removes every pooled pair, e.g. on shutdown
+    public void clear() {
+        for (Deque<EntityPair> pooled : idle.values()) {
+            for (EntityPair pair : pooled) {
+                remove(pair);
+            }
+        }
+        idle.clear();
+        idleCount = 0;
+    }
+
+    // Removes the pooled pairs of a world that is about to unload, so they are not saved with it
+    public void dropWorld(UUID world) {
+        Deque<EntityPair> pooled = idle.remove(world);
+        if (pooled == null) {
+            return;
+        }
+
+        for (EntityPair pair : pooled) {
+            remove(pair);
+        }
+        idleCount -= pooled.size();
+    }
+
+    private void remove(EntityPair pair) {
+        platform.removeEntity(pair.armorStand);
+        platform.removeEntity(pair.fallingBlock);
+        discard(pair);
+    }
+
+    private void discard(EntityPair pair) {
+        disguiseManager.untrackEntity(pair.armorStand.getUniqueId());
+        disguiseManager.untrackEntity(pair.fallingBlock.getUniqueId());
+    }
+
+    public int getIdleCount() {
+        return idleCount;
+    }
+}
@@ -0,0 +1,99 @@
+package io.github.icohedron.blockdisguises;
+
+import java.util.Collections;
+import java.util.Map;
+
+// Immutable copy of the plugin's metrics at one point in time
+public final class MetricsSnapshot {
+
+    public static final class CounterSnapshot {
+        private final long total;
+        private final long lastTick;
+        private final double averagePerTick; // Over the last minute
+        private final long lastSecond;
+
+        CounterSnapshot(long total, long lastTick, double averagePerTick, long lastSecond) {
+            this.total = total;
+            this.lastTick = lastTick;
+            this.averagePerTick = averagePerTick;
+            this.lastSecond = lastSecond;
+        }
+
+        public long getTotal() {
+            return total;
+        }
+
+        public long getLastTick() {
+            return lastTick;
+        }
+
+        public double getAveragePerTick() {
+            return averagePerTick;
+        }
+
+        public long getLastSecond() {
+            return lastSecond;
+        }
+    }
+
+    public static final class TimerSnapshot {
+        private final long count;
+        private final double p50Millis; // Over the latest samples
+        private final double p99Millis;
+        private final double maxMillis;
+
+        TimerSnapshot(long count, double p50Millis, double p99Millis, double maxMillis) {
+            this.count = count;
+            this.p50Millis = p50Millis;
+            this.p99Millis = p99Millis;
+            this.maxMillis = maxMillis;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getP50Millis() {
+            return p50Millis;
+        }
+
+        public double getP99Millis() {
+            return p99Millis;
+        }
+
+        public double getMaxMillis() {
+            return maxMillis;
+        }
+    }
+
+    private final long ticks;
+    private final Map<DisguiseMetrics.Counter, CounterSnapshot> counters;
+    private final Map<DisguiseMetrics.Timer, TimerSnapshot> timers;
+
+    MetricsSnapshot(long ticks, Map<DisguiseMetrics.Counter, CounterSnapshot> counters, Map<DisguiseMetrics.Timer, TimerSnapshot> timers) {
+        this.ticks = ticks;
+        this.counters = Collections.unmodifiableMap(counters);
+        this.timers = Collections.unmodifiableMap(timers);
+    }
+
+    // Ticks recorded since the plugin started
+    public long getTicks() {
+        return ticks;
+    }
+
+    public CounterSnapshot getCounter(DisguiseMetrics.Counter counter) {
+        return counters.get(counter);
+    }
+
+    public TimerSnapshot getTimer(DisguiseMetrics.Timer timer) {
+        return timers.get(timer);
+    }
+
+    public Map<DisguiseMetrics.Counter, CounterSnapshot> getCounters() {
+        return counters;
+    }
+
+    public Map<DisguiseMetrics.Timer, TimerSnapshot> getTimers() {
+        return timers;
+    }
+}
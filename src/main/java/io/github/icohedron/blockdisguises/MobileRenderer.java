@@ -0,0 +1,23 @@
+package io.github.icohedron.blockdisguises;
+
+import java.util.UUID;
+
+// Shows mobile disguises to other players. Which renderer is used is selected with 'mobile_render_mode'
+public interface MobileRenderer {
+
+    // How a single mobile disguise is currently being shown
+    interface Rendering {
+
+        // Follows the disguise to its latest location. Called at most once per tick
+        void move();
+
+        // Stops showing the disguise, it turned solid or was removed
+        void hide();
+
+        // Whether the given entity is part of this rendering
+        boolean isAssociatedWith(UUID entity);
+    }
+
+    // Starts showing a disguise that just turned mobile at its current location
+    Rendering show(Disguise disguise);
+}
@@ -0,0 +1,103 @@
+package io.github.icohedron.blockdisguises;
+
+import io.github.icohedron.blockdisguises.api.DisguiseService;
+import io.github.icohedron.blockdisguises.api.DisguiseView;
+import org.spongepowered.api.block.BlockState;
+import org.spongepowered.api.entity.living.player.Player;
+import org.spongepowered.api.world.World;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SimpleDisguiseService implements DisguiseService {
+
+    private final DisguiseManager disguiseManager;
+
+    public SimpleDisguiseService(DisguiseManager disguiseManager) {
+        this.disguiseManager = disguiseManager;
+    }
+
+    @Override
+    public boolean isDisguised(UUID player) {
+        return disguiseManager.isDisguised(player);
+    }
+
+    @Override
+    public Optional<DisguiseView> getDisguise(UUID player) {
+        return disguiseManager.getView(player);
+    }
+
+    @Override
+    public Collection<DisguiseView> getDisguises() {
+        return disguiseManager.getViews().values();
+    }
+
+    @Override
+    public Collection<DisguiseView> getDisguises(World world) {
+        return disguiseManager.getViews(world.getUniqueId());
+    }
+
+    @Override
+    public CompletableFuture<Void> disguise(Player player, BlockState blockState) {
+        return disguiseAll(Collections.singletonMap(player, blockState));
+    }
+
+    @Override
+    public CompletableFuture<Void> disguiseAll(Map<Player, BlockState> disguises) {
+        List<Runnable> steps = new ArrayList<>(disguises.size());
+        for (Map.Entry<Player, BlockState> entry : disguises.entrySet()) {
+            Player player = entry.getKey();
+            BlockState blockState = entry.getValue();
+            steps.add(() -> {
+                if (!player.isOnline()) {
+                    return;
+                }
+                if (disguiseManager.isDisguised(player.getUniqueId())) {
+                    disguiseManager.undisguise(player.getUniqueId());
+                }
+                disguiseManager.disguise(player, blockState);
+            });
+        }
+        return disguiseManager.getBulkOperations().submit(steps);
+    }
+
+    @Override
+    public CompletableFuture<Void> undisguise(UUID player) {
+        return undisguiseAll(Collections.singletonList(player)).thenApply(count -> null);
+    }
+
+    @Override
+    public CompletableFuture<Integer> undisguiseWorld(World world) {
+        List<UUID> players = new ArrayList<>();
+        for (DisguiseView view : disguiseManager.getViews(world.getUniqueId())) {
+            players.add(view.getOwner());
+        }
+        return undisguiseAll(players);
+    }
+
+    @Override
+    public CompletableFuture<Integer> undisguiseAll() {
+        return undisguiseAll(new ArrayList<>(disguiseManager.getViews().keySet()));
+    }
+
+    private CompletableFuture<Integer> undisguiseAll(List<UUID> players) {
+        AtomicInteger undisguised = new AtomicInteger();
+        List<Runnable> steps = new ArrayList<>(players.size());
+        for (UUID player : players) {
+            steps.add(() -> {
+                if (disguiseManager.isDisguised(player)) { // May have been undisguised since the request
+                    disguiseManager.undisguise(player);
+                    undisguised.incrementAndGet();
+                }
+            });
+        }
+        return disguiseManager.getBulkOperations().submit(steps).thenApply(done -> undisguised.get());
+    }
+}
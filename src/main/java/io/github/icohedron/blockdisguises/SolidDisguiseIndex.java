@@ -0,0 +1,60 @@
+package io.github.icohedron.blockdisguises;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+// Spatial index of the solid disguises of a single world: <Chunk key, <Block key, Disguise>>
+// Answers "which disguise, if any, occupies this block" without scanning every disguise
+public class SolidDisguiseIndex {
+
+    private final Map<Long, Map<Long, Disguise>> chunks = new HashMap<>();
+
+    public void put(int x, int y, int z, Disguise disguise) {
+        chunks.computeIfAbsent(BlockKeys.chunkKeyOfBlock(x, z), c -> new HashMap<>())
+                .put(BlockKeys.pack(x, y, z), disguise);
+    }
+
+    // Only removes the entry if it still belongs to the given disguise
+    public void remove(int x, int y, int z, Disguise disguise) {
+        long chunkKey = BlockKeys.chunkKeyOfBlock(x, z);
+        Map<Long, Disguise> blocks = chunks.get(chunkKey);
+        if (blocks == null) {
+            return;
+        }
+
+        blocks.remove(BlockKeys.pack(x, y, z), disguise);
+        if (blocks.isEmpty()) {
+            chunks.remove(chunkKey);
+        }
+    }
+
+    public Disguise get(int x, int y, int z) {
+        Map<Long, Disguise> blocks = chunks.get(BlockKeys.chunkKeyOfBlock(x, z));
+        if (blocks == null) {
+            return null;
+        }
+
+        return blocks.get(BlockKeys.pack(x, y, z));
+    }
+
+    // All solid disguises within a single chunk
+    public Collection<Disguise> getChunk(int chunkX, int chunkZ) {
+        Map<Long, Disguise> blocks = chunks.get(BlockKeys.chunkKey(chunkX, chunkZ));
+        if (blocks == null) {
+            return Collections.emptyList();
+        }
+
+        return blocks.values();
+    }
+
+    // <Chunk key, <Block key, Disguise>> of every chunk holding at least one solid disguise
+    public Map<Long, Map<Long, Disguise>> getChunks() {
+        return chunks;
+    }
+
+    public void clear() {
+        chunks.clear();
+    }
+}
@@ -0,0 +1,91 @@
+package io.github.icohedron.blockdisguises;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Timing wheel that solidifies disguises once their countdown runs out, driven by the plugin's single per-tick task
+// Resetting a countdown to a later deadline only moves the deadline. The disguise stays in the bucket it was put in and
+// is moved to the bucket of its new deadline once the old one comes up, so resets allocate nothing
+// An earlier deadline puts the disguise into the earlier bucket right away, and the entry left in the old one is skipped
+public class SolidifyScheduler {
+
+    private static final int WHEEL_SIZE = 256; // Must be a power of two
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    static final long NO_DEADLINE = -1;
+
+    private final List<Disguise>[] wheel;
+    private List<Disguise> spare = new ArrayList<>(); // Swapped in for the bucket being processed
+    private long currentTick;
+
+    @SuppressWarnings("unchecked")
+    public SolidifyScheduler() {
+        wheel = new List[WHEEL_SIZE];
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new ArrayList<>();
+        }
+    }
+
+    // Starts or restarts the countdown of a disguise
+    // A disguise already in the wheel keeps its bucket, unless the new deadline comes up before that bucket does
+    public void schedule(Disguise disguise, int delayTicks) {
+        disguise.solidifyDeadline = currentTick + Math.max(1, delayTicks);
+        if (disguise.solidifyBucket == NO_DEADLINE || bucketTick(disguise.solidifyDeadline) < disguise.solidifyBucket) {
+            insert(disguise);
+        }
+    }
+
+    public void cancel(Disguise disguise) {
+        disguise.solidifyDeadline = NO_DEADLINE; // Dropped from the wheel when its bucket comes up
+    }
+
+    public void tick() {
+        currentTick++;
+
+        int index = (int) (currentTick & WHEEL_MASK);
+        List<Disguise> bucket = wheel[index];
+        if (bucket.isEmpty()) {
+            return;
+        }
+
+        // Disguises may be inserted back into this slot while the bucket is being processed
+        wheel[index] = spare;
+
+        for (Disguise disguise : bucket) {
+            if (disguise.solidifyBucket != currentTick) {
+                continue; // Moved to an earlier bucket, or already handled through another entry
+            }
+            disguise.solidifyBucket = NO_DEADLINE;
+
+            if (disguise.solidifyDeadline == NO_DEADLINE) {
+                continue; // Cancelled
+            }
+
+            if (disguise.solidifyDeadline > currentTick) {
+                insert(disguise); // Countdown was reset since it was put in this bucket
+                continue;
+            }
+
+            disguise.solidifyDeadline = NO_DEADLINE;
+            disguise.setSolid();
+        }
+
+        bucket.clear();
+        spare = bucket;
+    }
+
+    private void insert(Disguise disguise) {
+        long bucketTick = bucketTick(disguise.solidifyDeadline);
+        wheel[(int) (bucketTick & WHEEL_MASK)].add(disguise);
+        disguise.solidifyBucket = bucketTick;
+    }
+
+    // The next tick at which the bucket of a deadline comes up. Deadlines further away than the wheel come up early
+    private long bucketTick(long deadline) {
+        return currentTick + ((deadline - currentTick - 1) & WHEEL_MASK) + 1;
+    }
+
+    public long getCurrentTick() {
+        return currentTick;
+    }
+}
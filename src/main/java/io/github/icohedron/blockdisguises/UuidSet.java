@@ -0,0 +1,110 @@
+package io.github.icohedron.blockdisguises;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+// Set of UUIDs stored as pairs of longs in open addressing arrays
+// Lookups hash two longs and compare primitives, so they neither allocate nor call hashCode or equals
+public class UuidSet {
+
+    private long[] most = new long[16];
+    private long[] least = new long[16];
+    private boolean[] used = new boolean[16];
+    private int size;
+
+    public boolean contains(UUID uuid) {
+        return find(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits()) >= 0;
+    }
+
+    public void add(UUID uuid) {
+        long m = uuid.getMostSignificantBits();
+        long l = uuid.getLeastSignificantBits();
+        if (find(m, l) >= 0) {
+            return;
+        }
+
+        // Kept at most half full so probe sequences stay short
+        if ((size + 1) * 2 > used.length) {
+            resize();
+        }
+        insert(m, l);
+        size++;
+    }
+
+    public void remove(UUID uuid) {
+        int i = find(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+        if (i < 0) {
+            return;
+        }
+
+        used[i] = false;
+        size--;
+
+        // Shift back the following entries of the probe sequence, so lookups never stop at the hole
+        int mask = used.length - 1;
+        for (int j = (i + 1) & mask; used[j]; j = (j + 1) & mask) {
+            int home = index(most[j], least[j], mask);
+            boolean reachable = i <= j ? (home > i && home <= j) : (home > i || home <= j);
+            if (!reachable) {
+                most[i] = most[j];
+                least[i] = least[j];
+                used[i] = true;
+                used[j] = false;
+                i = j;
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int find(long m, long l) {
+        int mask = used.length - 1;
+        for (int i = index(m, l, mask); used[i]; i = (i + 1) & mask) {
+            if (most[i] == m && least[i] == l) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void insert(long m, long l) {
+        int mask = used.length - 1;
+        int i = index(m, l, mask);
+        while (used[i]) {
+            i = (i + 1) & mask;
+        }
+        most[i] = m;
+        least[i] = l;
+        used[i] = true;
+    }
+
+    private void resize() {
+        long[] oldMost = most;
+        long[] oldLeast = least;
+        boolean[] oldUsed = used;
+        most = new long[oldUsed.length * 2];
+        least = new long[oldUsed.length * 2];
+        used = new boolean[oldUsed.length * 2];
+        for (int i = 0; i < oldUsed.length; i++) {
+            if (oldUsed[i]) {
+                insert(oldMost[i], oldLeast[i]);
+            }
+        }
+    }
+
+    private static int index(long m, long l, int mask) {
+        // Random UUIDs are already well mixed, but other versions are not
+        long h = m ^ l;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h & mask;
+    }
+}
@@ -0,0 +1,94 @@
+package io.github.icohedron.blockdisguises;
+
+import java.util.UUID;
+
+// Renders mobile disguises without any server entities: other players are sent a fake block at the block the owner
+// is standing in, which follows them block by block. Nothing is ticked or saved with the chunk
+// The fake block goes into the shard's virtual index, which the broadcaster syncs like the solid index. It is kept out
+// of the solid index, so hitting it does not count as hitting the disguise and other disguises may turn solid there
+// It is never shown over a real block, e.g. a door, a plant or water. It is solid on the client, so players walking
+// into it bump into it, which the falling block of 'entity' mode does not do
+public class VirtualMobileRenderer implements MobileRenderer {
+
+    private static class VirtualRendering implements Rendering {
+        private final DisguiseManager disguiseManager;
+        private final Disguise disguise;
+        private final UUID world; // Disguises never change worlds, they are removed instead
+        private int x;
+        private int y;
+        private int z;
+        private boolean hidden;
+        private boolean placed; // Whether the fake block is in the index. Not while the block is not air or has another fake block
+
+        private VirtualRendering(DisguiseManager disguiseManager, Disguise disguise) {
+            this.disguiseManager = disguiseManager;
+            this.disguise = disguise;
+            this.world = disguise.getWorld();
+            place();
+        }
+
+        // Shows the fake block at the disguise's current block
+        private void place() {
+            x = disguise.getBlockX();
+            y = disguise.getBlockY();
+            z = disguise.getBlockZ();
+            if (!disguiseManager.getPlatform().isAir(disguise.getLocation().getExtent(), x, y, z)) {
+                placed = false;
+                return; // Would overwrite the real block on the client
+            }
+            placed = disguiseManager.indexVirtualBlock(disguise, world, x, y, z); // Sent to players by the broadcaster's sync
+        }
+
+        // Takes the fake block back from everyone that was sent it
+        private void clear() {
+            if (!placed) {
+                return; // Nothing was shown, or the block belongs to another disguise, which must keep it
+            }
+
+            disguiseManager.unindexVirtualBlock(disguise, world, x, y, z);
+            placed = false;
+            if (disguiseManager.getSolidDisguiseAt(world, x, y, z) != null) {
+                return; // Viewers are sent the solid disguise's block in place of this one by their next sync
+            }
+            disguiseManager.getBroadcaster().resetBlock(world, x, y, z);
+        }
+
+        @Override
+        public void move() {
+            if (hidden || (disguise.getBlockX() == x && disguise.getBlockY() == y && disguise.getBlockZ() == z)) {
+                return; // Hidden since the move was queued, or still in the same block
+            }
+
+            // The reset goes out first, the new block once the broadcaster syncs each player within its budget
+            clear();
+            place();
+        }
+
+        @Override
+        public void hide() {
+            if (hidden) {
+                return;
+            }
+
+            clear();
+            hidden = true;
+        }
+
+        @Override
+        public boolean isAssociatedWith(UUID entity) {
+            return false; // There are no entities
+        }
+    }
+
+    private final DisguiseManager disguiseManager;
+
+    public VirtualMobileRenderer(DisguiseManager disguiseManager) {
+        this.disguiseManager = disguiseManager;
+    }
+
+    @Override
+    public Rendering show(Disguise disguise) {
+        BlockDisguises.debug(DebugChannel.ENTITY, () -> "Showing a virtual block for " + disguise.describeOwner() + "'s disguise");
+        return new VirtualRendering(disguiseManager, disguise);
+    }
+}
@@ -0,0 +1,54 @@
+package io.github.icohedron.blockdisguises;
+
+import org.spongepowered.api.entity.living.player.Player;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+// Everything about the disguises of a single world: the disguises, their solid and virtual indices and the players in it
+// Per-world work only ever touches one shard, so one arena's disguises cost nothing in another arena
+// Shards are created when their world loads (or a disguise or player shows up in it) and dropped when it unloads
+public class WorldShard {
+
+    private final UUID world;
+    private final Map<UUID, Disguise> disguises = new HashMap<>(); // <Player UUID, Disguise> of disguises in this world
+    private final SolidDisguiseIndex solidIndex = new SolidDisguiseIndex();
+    private final SolidDisguiseIndex virtualIndex = new SolidDisguiseIndex(); // Fake blocks of mobile disguises rendered virtually
+    private final List<Player> viewers = new ArrayList<>(); // Players in this world, rebuilt by the broadcaster every tick
+
+    public WorldShard(UUID world) {
+        this.world = world;
+    }
+
+    void add(Disguise disguise) {
+        disguises.put(disguise.getOwner(), disguise);
+    }
+
+    void remove(Disguise disguise) {
+        disguises.remove(disguise.getOwner(), disguise);
+    }
+
+    public UUID getWorld() {
+        return world;
+    }
+
+    public Map<UUID, Disguise> getDisguises() {
+        return Collections.unmodifiableMap(disguises);
+    }
+
+    public SolidDisguiseIndex getSolidIndex() {
+        return solidIndex;
+    }
+
+    public SolidDisguiseIndex getVirtualIndex() {
+        return virtualIndex;
+    }
+
+    List<Player> getViewers() {
+        return viewers;
+    }
+}
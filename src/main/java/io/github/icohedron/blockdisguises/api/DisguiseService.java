@@ -0,0 +1,38 @@
+package io.github.icohedron.blockdisguises.api;
+
+import org.spongepowered.api.block.BlockState;
+import org.spongepowered.api.entity.living.player.Player;
+import org.spongepowered.api.world.World;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+// Service for other plugins to disguise and undisguise players, registered with Sponge's ServiceManager
+// Operations may be requested from any thread. They are applied on the main thread, spread over several ticks,
+// and the returned future completes once everything has been applied
+public interface DisguiseService {
+
+    boolean isDisguised(UUID player);
+
+    Optional<DisguiseView> getDisguise(UUID player);
+
+    Collection<DisguiseView> getDisguises();
+
+    Collection<DisguiseView> getDisguises(World world);
+
+    // Replaces any existing disguise of the player
+    CompletableFuture<Void> disguise(Player player, BlockState blockState);
+
+    // Replaces any existing disguises of the players. Players that went offline before their turn are skipped
+    CompletableFuture<Void> disguiseAll(Map<Player, BlockState> disguises);
+
+    CompletableFuture<Void> undisguise(UUID player);
+
+    // Completes with the amount of players that were undisguised
+    CompletableFuture<Integer> undisguiseWorld(World world);
+
+    CompletableFuture<Integer> undisguiseAll();
+}
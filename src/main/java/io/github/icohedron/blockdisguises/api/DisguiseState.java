@@ -0,0 +1,6 @@
+package io.github.icohedron.blockdisguises.api;
+
+// MOBILE - when the player is moving, SOLID - when the player is not moving, NONE - the player disconnected
+public enum DisguiseState {
+    MOBILE, SOLID, NONE
+}
@@ -0,0 +1,66 @@
+package io.github.icohedron.blockdisguises.api;
+
+import com.flowpowered.math.vector.Vector3i;
+import org.spongepowered.api.block.BlockState;
+
+import java.util.UUID;
+
+// Immutable copy of a disguise's state, safe to read from any thread
+public final class DisguiseView {
+
+    private final UUID owner;
+    private final String ownerName;
+    private final BlockState blockState;
+    private final DisguiseState state;
+    private final UUID world;
+    private final int blockX;
+    private final int blockY;
+    private final int blockZ;
+
+    public DisguiseView(UUID owner, String ownerName, BlockState blockState, DisguiseState state, UUID world, int blockX, int blockY, int blockZ) {
+        this.owner = owner;
+        this.ownerName = ownerName;
+        this.blockState = blockState;
+        this.state = state;
+        this.world = world;
+        this.blockX = blockX;
+        this.blockY = blockY;
+        this.blockZ = blockZ;
+    }
+
+    public UUID getOwner() {
+        return owner;
+    }
+
+    public String getOwnerName() {
+        return ownerName;
+    }
+
+    public BlockState getBlockState() {
+        return blockState;
+    }
+
+    public DisguiseState getState() {
+        return state;
+    }
+
+    public UUID getWorld() {
+        return world;
+    }
+
+    public Vector3i getBlockPosition() {
+        return new Vector3i(blockX, blockY, blockZ);
+    }
+
+    public int getBlockX() {
+        return blockX;
+    }
+
+    public int getBlockY() {
+        return blockY;
+    }
+
+    public int getBlockZ() {
+        return blockZ;
+    }
+}
@@ -2,7 +2,6 @@ package io.github.icohedron.blockdisguises.cmds;
 
 import org.spongepowered.api.block.BlockState;
 import org.spongepowered.api.block.BlockType;
-import org.spongepowered.api.block.trait.BlockTrait;
 import org.spongepowered.api.command.CommandException;
 import org.spongepowered.api.command.CommandResult;
 import org.spongepowered.api.command.CommandSource;
@@ -16,37 +15,43 @@ import java.util.UUID;
 
 public class DisguiseCmd extends BlockDisguiseCmd {
 
+    // Flags of '/bd disguise' that set a block trait of the same name, in the order they are applied
+    private static final String[] TRAIT_FLAGS = {"variant", "facing", "color", "half", "type", "wet", "powered", "delay", "shape", "conditional", "axis"};
+
     @Override
     public CommandResult execute(CommandSource src, CommandContext args) throws CommandException {
         Player player = args.<Player>getOne("player").get();
         UUID uuid = player.getUniqueId();
 
-        if (disguiseManager.isDisguised(uuid)) {
-            disguiseManager.undisguise(uuid);
-        }
-
-        BlockType blockType = args.<BlockType>getOne("blocktype").get();
-        BlockState blockState = blockType.getDefaultState();
-
-        String[] traits = new String[] {"variant", "facing", "color", "half", "type", "wet", "powered", "delay", "shape", "conditional", "axis"};
-        for (String flag : traits) {
+        // Either a preset from the configuration or a block type
+        Optional<BlockState> preset = args.getOne("preset");
+        BlockState baseState = preset.isPresent() ? preset.get() : args.<BlockType>getOne("blocktype").get().getDefaultState();
 
+        StringBuilder traits = new StringBuilder();
+        for (String flag : TRAIT_FLAGS) {
             Optional<String> flagString = args.getOne(flag);
             if (flagString.isPresent()) { // If the flag was specified for this trait (with an argument)
-
-                Optional<BlockTrait<?>> flagTrait = blockState.getTrait(flag); // Retrieve the block trait corresponding to the flag
-                if (flagTrait.isPresent()) { // If the block has this trait
-
-                    Optional<BlockState> blockStateWithTrait = blockState.withTrait(flagTrait.get(), flagString.get()); // Try applying the trait to the block state
-                    if (blockStateWithTrait.isPresent()) { // If successful
-                        blockState = blockStateWithTrait.get(); // Set it as the new block trait
-                    }
-
+                String value = flagString.get();
+                // Would otherwise set other traits than the flag's own, e.g. '-variant spruce,facing=up'
+                if (value.indexOf(',') >= 0 || value.indexOf('=') >= 0 || value.indexOf('[') >= 0 || value.indexOf(']') >= 0) {
+                    src.sendMessage(Text.of(blockDisguises.getTextPrefix(), TextColors.RED, "The value of -" + flag + " may not contain ',', '=', '[' or ']'"));
+                    return CommandResult.empty();
                 }
 
+                if (traits.length() > 0) {
+                    traits.append(',');
+                }
+                traits.append(flag).append('=').append(value);
             }
         }
 
+        if (disguiseManager.isDisguised(uuid)) {
+            disguiseManager.undisguise(uuid);
+        }
+
+        // Resolved once per block and traits, afterwards this is a map lookup
+        BlockState blockState = disguiseManager.getBlockStateResolver().resolve(baseState, traits.toString());
+
         disguiseManager.disguise(player, blockState);
 
         if (src != player) {
@@ -1,6 +1,6 @@
 package io.github.icohedron.blockdisguises.cmds;
 
-import io.github.icohedron.blockdisguises.Disguise;
+import io.github.icohedron.blockdisguises.api.DisguiseView;
 import org.spongepowered.api.command.CommandException;
 import org.spongepowered.api.command.CommandResult;
 import org.spongepowered.api.command.CommandSource;
@@ -8,21 +8,26 @@ import org.spongepowered.api.command.args.CommandContext;
 import org.spongepowered.api.service.pagination.PaginationList;
 import org.spongepowered.api.text.Text;
 import org.spongepowered.api.text.format.TextColors;
+import org.spongepowered.api.world.storage.WorldProperties;
 
+import java.util.Collection;
+import java.util.Optional;
 import java.util.Stack;
-import java.util.UUID;
 
 public class ListCmd extends BlockDisguiseCmd {
 
     @Override
     public CommandResult execute(CommandSource src, CommandContext args) throws CommandException {
+        // Only the disguises of a single world if one is given
+        Optional<WorldProperties> world = args.getOne("world");
+        Collection<DisguiseView> disguises = world.isPresent() ? disguiseManager.getViews(world.get().getUniqueId()) : disguiseManager.getViews().values();
+
         Stack<Text> contents = new Stack<>();
-        for (UUID disguised : disguiseManager.getAllDisguised()) {
-            Disguise disguise = disguiseManager.getDisguise(disguised);
-            contents.push(Text.of(disguise.getOwnerName().get(), TextColors.GRAY, " -> Disguised as ", TextColors.YELLOW, disguise.getBlockState().getName()));
+        for (DisguiseView disguise : disguises) {
+            contents.push(Text.of(disguise.getOwnerName(), TextColors.GRAY, " -> Disguised as ", TextColors.YELLOW, disguise.getBlockState().getName()));
         }
         PaginationList.builder()
-                .title(Text.of(TextColors.DARK_GREEN, "Disguised players"))
+                .title(Text.of(TextColors.DARK_GREEN, world.isPresent() ? "Disguised players in " + world.get().getWorldName() : "Disguised players"))
                 .contents(contents)
                 .padding(Text.of(TextColors.DARK_GREEN, "="))
                 .build().sendTo(src);
@@ -0,0 +1,70 @@
+package io.github.icohedron.blockdisguises.cmds;
+
+import io.github.icohedron.blockdisguises.DisguiseMetrics;
+import io.github.icohedron.blockdisguises.MetricsSnapshot;
+import io.github.icohedron.blockdisguises.api.DisguiseState;
+import org.spongepowered.api.command.CommandException;
+import org.spongepowered.api.command.CommandResult;
+import org.spongepowered.api.command.CommandSource;
+import org.spongepowered.api.command.args.CommandContext;
+import org.spongepowered.api.service.pagination.PaginationList;
+import org.spongepowered.api.text.Text;
+import org.spongepowered.api.text.format.TextColors;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+public class StatsCmd extends BlockDisguiseCmd {
+
+    @Override
+    public CommandResult execute(CommandSource src, CommandContext args) throws CommandException {
+        MetricsSnapshot snapshot = disguiseManager.getMetrics().snapshot();
+        List<Text> contents = new ArrayList<>();
+
+        int solid = 0;
+        int mobile = 0;
+        for (UUID disguised : disguiseManager.getAllDisguised()) {
+            DisguiseState state = disguiseManager.getDisguise(disguised).getState();
+            if (state == DisguiseState.SOLID) {
+                solid++;
+            } else if (state == DisguiseState.MOBILE) {
+                mobile++;
+            }
+        }
+        contents.add(Text.of(TextColors.GRAY, "Disguises: ", TextColors.YELLOW, disguiseManager.numDisguised(),
+                TextColors.GRAY, " (" + solid + " solid, " + mobile + " mobile)"));
+
+        for (Map.Entry<DisguiseMetrics.Counter, MetricsSnapshot.CounterSnapshot> entry : snapshot.getCounters().entrySet()) {
+            MetricsSnapshot.CounterSnapshot counter = entry.getValue();
+            contents.add(Text.of(TextColors.GRAY, name(entry.getKey()) + ": ",
+                    TextColors.YELLOW, counter.getLastTick(), TextColors.GRAY, " last tick, ",
+                    TextColors.YELLOW, String.format("%.2f", counter.getAveragePerTick()), TextColors.GRAY, "/tick avg, ",
+                    TextColors.YELLOW, counter.getLastSecond(), TextColors.GRAY, " last second, ",
+                    TextColors.YELLOW, counter.getTotal(), TextColors.GRAY, " total"));
+        }
+
+        for (Map.Entry<DisguiseMetrics.Timer, MetricsSnapshot.TimerSnapshot> entry : snapshot.getTimers().entrySet()) {
+            MetricsSnapshot.TimerSnapshot timer = entry.getValue();
+            contents.add(Text.of(TextColors.GRAY, name(entry.getKey()) + ": ",
+                    TextColors.YELLOW, String.format("%.3f", timer.getP50Millis()), TextColors.GRAY, "ms p50, ",
+                    TextColors.YELLOW, String.format("%.3f", timer.getP99Millis()), TextColors.GRAY, "ms p99, ",
+                    TextColors.YELLOW, String.format("%.3f", timer.getMaxMillis()), TextColors.GRAY, "ms max, ",
+                    TextColors.YELLOW, timer.getCount(), TextColors.GRAY, " calls"));
+        }
+
+        PaginationList.builder()
+                .title(Text.of(TextColors.DARK_GREEN, "BlockDisguises stats (" + snapshot.getTicks() + " ticks)"))
+                .contents(contents)
+                .padding(Text.of(TextColors.DARK_GREEN, "="))
+                .build().sendTo(src);
+        return CommandResult.success();
+    }
+
+    // BLOCK_CHANGES -> Block changes
+    private static String name(Enum<?> value) {
+        String name = value.name().replace('_', ' ').toLowerCase();
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+}
@@ -6,11 +6,21 @@ import org.spongepowered.api.command.CommandSource;
 import org.spongepowered.api.command.args.CommandContext;
 import org.spongepowered.api.text.Text;
 import org.spongepowered.api.text.format.TextColors;
+import org.spongepowered.api.world.storage.WorldProperties;
+
+import java.util.Optional;
 
 public class UndisguiseAllCmd extends BlockDisguiseCmd {
 
     @Override
     public CommandResult execute(CommandSource src, CommandContext args) throws CommandException {
+        Optional<WorldProperties> world = args.getOne("world");
+        if (world.isPresent()) {
+            int undisguised = disguiseManager.undisguiseWorld(world.get().getUniqueId());
+            src.sendMessage(Text.of(blockDisguises.getTextPrefix(), TextColors.YELLOW, "Undisguised " + undisguised + " players in " + world.get().getWorldName()));
+            return CommandResult.success();
+        }
+
         disguiseManager.undisguiseAll();
         src.sendMessage(Text.of(blockDisguises.getTextPrefix(), TextColors.YELLOW, "Undisguised all players"));
         return CommandResult.success();
@@ -0,0 +1,57 @@
+package io.github.icohedron.blockdisguises.platform;
+
+import com.flowpowered.math.vector.Vector3d;
+import org.spongepowered.api.block.BlockState;
+import org.spongepowered.api.entity.Entity;
+import org.spongepowered.api.entity.EntityType;
+import org.spongepowered.api.entity.living.player.Player;
+import org.spongepowered.api.world.Location;
+import org.spongepowered.api.world.World;
+
+import java.util.Collection;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+// Everything disguises need from the server: player lookup, block changes, entities and scheduling
+// SpongePlatform talks to the running server, RecordingPlatform keeps everything in memory and records it
+public interface Platform {
+
+    Collection<Player> getOnlinePlayers();
+
+    Optional<Player> getPlayer(UUID player);
+
+    // Sends a fake block to a single client
+    void sendBlockChange(Player viewer, int x, int y, int z, BlockState blockState);
+
+    // Shows a single client the real block again
+    void resetBlockChange(Player viewer, int x, int y, int z);
+
+    // Whether the real block at the given position is air
+    boolean isAir(World world, int x, int y, int z);
+
+    // Creates an entity, lets the caller set it up and spawns it
+    Entity spawnEntity(World world, EntityType type, Vector3d position, Consumer<Entity> setup);
+
+    // Makes the passenger ride the vehicle
+    void mountEntity(Entity vehicle, Entity passenger);
+
+    Optional<Entity> getEntity(World world, UUID entity);
+
+    void teleportEntity(Entity entity, Location<World> location);
+
+    // Where unused entities are kept out of sight: above the world's spawn, whose chunks normally stay loaded
+    Location<World> getParkingLocation(World world);
+
+    void setEntityVanished(Entity entity, boolean vanished);
+
+    // Marks an entity as belonging to the disguise of the given player
+    void setDisguiseOwner(Entity entity, UUID owner);
+
+    void setFallingBlockState(Entity fallingBlock, BlockState blockState);
+
+    void removeEntity(Entity entity);
+
+    // Runs a task off the main thread
+    void runAsync(Runnable task);
+}
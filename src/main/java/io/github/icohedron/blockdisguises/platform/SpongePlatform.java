@@ -0,0 +1,103 @@
+package io.github.icohedron.blockdisguises.platform;
+
+import com.flowpowered.math.vector.Vector3d;
+import io.github.icohedron.blockdisguises.BlockDisguises;
+import io.github.icohedron.blockdisguises.data.DisguiseOwnerData;
+import org.spongepowered.api.Sponge;
+import org.spongepowered.api.block.BlockState;
+import org.spongepowered.api.block.BlockTypes;
+import org.spongepowered.api.data.key.Keys;
+import org.spongepowered.api.entity.Entity;
+import org.spongepowered.api.entity.EntityType;
+import org.spongepowered.api.entity.living.player.Player;
+import org.spongepowered.api.scheduler.Task;
+import org.spongepowered.api.world.Location;
+import org.spongepowered.api.world.World;
+
+import java.util.Collection;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+// The running Sponge server
+public class SpongePlatform implements Platform {
+
+    @Override
+    public Collection<Player> getOnlinePlayers() {
+        return Sponge.getServer().getOnlinePlayers();
+    }
+
+    @Override
+    public Optional<Player> getPlayer(UUID player) {
+        return Sponge.getServer().getPlayer(player);
+    }
+
+    @Override
+    public void sendBlockChange(Player viewer, int x, int y, int z, BlockState blockState) {
+        viewer.sendBlockChange(x, y, z, blockState);
+    }
+
+    @Override
+    public void resetBlockChange(Player viewer, int x, int y, int z) {
+        viewer.resetBlockChange(x, y, z);
+    }
+
+    @Override
+    public boolean isAir(World world, int x, int y, int z) {
+        return world.getBlockType(x, y, z).equals(BlockTypes.AIR);
+    }
+
+    @Override
+    public Entity spawnEntity(World world, EntityType type, Vector3d position, Consumer<Entity> setup) {
+        Entity entity = world.createEntity(type, position);
+        setup.accept(entity);
+        world.spawnEntity(entity);
+        return entity;
+    }
+
+    @Override
+    public void mountEntity(Entity vehicle, Entity passenger) {
+        vehicle.addPassenger(passenger);
+    }
+
+    @Override
+    public Optional<Entity> getEntity(World world, UUID entity) {
+        return world.getEntity(entity);
+    }
+
+    @Override
+    public void teleportEntity(Entity entity, Location<World> location) {
+        entity.setLocation(location);
+    }
+
+    @Override
+    public Location<World> getParkingLocation(World world) {
+        Location<World> spawn = world.getSpawnLocation();
+        return new Location<>(world, spawn.getBlockX() + 0.5, world.getBlockMax().getY(), spawn.getBlockZ() + 0.5);
+    }
+
+    @Override
+    public void setEntityVanished(Entity entity, boolean vanished) {
+        entity.offer(Keys.VANISH, vanished);
+    }
+
+    @Override
+    public void setDisguiseOwner(Entity entity, UUID owner) {
+        entity.offer(new DisguiseOwnerData(owner));
+    }
+
+    @Override
+    public void setFallingBlockState(Entity fallingBlock, BlockState blockState) {
+        fallingBlock.offer(Keys.FALLING_BLOCK_STATE, blockState);
+    }
+
+    @Override
+    public void removeEntity(Entity entity) {
+        entity.remove();
+    }
+
+    @Override
+    public void runAsync(Runnable task) {
+        Task.builder().async().execute(task).submit(BlockDisguises.getInstance());
+    }
+}
@@ -0,0 +1,242 @@
+package io.github.icohedron.blockdisguises;
+
+import com.flowpowered.math.vector.Vector3d;
+import io.github.icohedron.blockdisguises.api.DisguiseState;
+import io.github.icohedron.blockdisguises.platform.RecordingPlatform.Operation;
+import io.github.icohedron.blockdisguises.platform.RecordingPlatform;
+import io.github.icohedron.blockdisguises.stub.StubPlayer;
+import io.github.icohedron.blockdisguises.stub.StubServer;
+import io.github.icohedron.blockdisguises.stub.StubWorld;
+import io.github.icohedron.blockdisguises.stub.Stubs;
+import ninja.leaping.configurate.ConfigurationNode;
+import ninja.leaping.configurate.SimpleConfigurationNode;
+import org.junit.Test;
+import org.spongepowered.api.block.BlockState;
+import org.spongepowered.api.entity.Transform;
+import org.spongepowered.api.event.entity.MoveEntityEvent;
+import org.spongepowered.api.world.World;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+// Exact block changes and resets sent to clients while disguises solidify and move, counted by the RecordingPlatform
+public class BroadcastScenarioTest {
+
+    private static final int SOLIDIFY_DELAY = 5;
+
+    private StubServer server;
+    private StubWorld world;
+    private RecordingPlatform platform;
+    private DisguiseManager disguiseManager;
+    private DisguiseListener listener;
+    private final BlockState stone = StubServer.blockState("minecraft:stone");
+
+    private void start(int packetBudget) {
+        start(packetBudget, "entity");
+    }
+
+    private void start(int packetBudget, String mobileRenderMode) {
+        ConfigurationNode config = SimpleConfigurationNode.root();
+        config.getNode("mobile_render_mode").setValue(mobileRenderMode);
+        config.getNode("solidify_delay").setValue(SOLIDIFY_DELAY);
+        config.getNode("broadcast_packet_budget").setValue(packetBudget);
+        config.getNode("broadcast_time_budget").setValue(0);
+        server = new StubServer(config);
+        world = server.createWorld("arena");
+        platform = server.getPlatform();
+        disguiseManager = server.getDisguiseManager();
+        listener = new DisguiseListener();
+    }
+
+    private void tick(int ticks) {
+        for (int i = 0; i < ticks; i++) {
+            disguiseManager.tick();
+        }
+    }
+
+    private void move(StubPlayer player, double x, double y, double z) {
+        Transform<World> from = new Transform<>(player.getLocation());
+        player.setPosition(x, y, z);
+        Transform<World> to = new Transform<>(world.getWorld(), new Vector3d(x, y, z));
+        MoveEntityEvent event = Stubs.stub(MoveEntityEvent.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getFromTransform":
+                    return from;
+                case "getToTransform":
+                    return to;
+                default:
+                    return Stubs.DEFAULT;
+            }
+        });
+        listener.onMoveEvent(event, player.getPlayer());
+    }
+
+    @Test
+    public void solidifyingSendsTheBlockOnceToEveryOtherPlayer() {
+        start(0);
+        StubPlayer hider = server.createPlayer("hider", world, 0.5, 64, 0.5);
+        StubPlayer seeker = server.createPlayer("seeker", world, 3.5, 64, 3.5);
+        disguiseManager.disguise(hider.getPlayer(), stone);
+
+        tick(SOLIDIFY_DELAY);
+        assertEquals(DisguiseState.SOLID, disguiseManager.getDisguise(hider.getUniqueId()).getState());
+        assertEquals(1, platform.getCount(Operation.BLOCK_CHANGE));
+        assertSame(stone, platform.getClientBlock(seeker.getUniqueId(), 0, 64, 0));
+        assertEquals(0, platform.getClientBlockCount(hider.getUniqueId())); // Never pushed out by their own block
+
+        // Nothing changed, so nothing is sent again
+        tick(20);
+        assertEquals(1, platform.getCount(Operation.BLOCK_CHANGE));
+        assertEquals(0, platform.getCount(Operation.BLOCK_RESET));
+    }
+
+    @Test
+    public void jitterKeepsTheDisguiseSolid() {
+        start(0);
+        StubPlayer hider = server.createPlayer("hider", world, 0.9, 64, 0.5);
+        server.createPlayer("seeker", world, 3.5, 64, 3.5);
+        disguiseManager.disguise(hider.getPlayer(), stone);
+        tick(SOLIDIFY_DELAY);
+
+        // Across the block boundary, but within break_out_distance
+        move(hider, 1.1, 64, 0.5);
+        move(hider, 0.9, 64, 0.5);
+        tick(1);
+        assertEquals(DisguiseState.SOLID, disguiseManager.getDisguise(hider.getUniqueId()).getState());
+        assertEquals(1, platform.getCount(Operation.BLOCK_CHANGE));
+        assertEquals(0, platform.getCount(Operation.BLOCK_RESET));
+    }
+
+    @Test
+    public void movingAwayResetsTheBlockAndSolidifiesAgainElsewhere() {
+        start(0);
+        StubPlayer hider = server.createPlayer("hider", world, 0.5, 64, 0.5);
+        StubPlayer seeker = server.createPlayer("seeker", world, 3.5, 64, 3.5);
+        disguiseManager.disguise(hider.getPlayer(), stone);
+        tick(SOLIDIFY_DELAY);
+
+        move(hider, 2.5, 64, 0.5);
+        tick(1);
+        assertEquals(DisguiseState.MOBILE, disguiseManager.getDisguise(hider.getUniqueId()).getState());
+        assertEquals(1, platform.getCount(Operation.BLOCK_RESET));
+        assertNull(platform.getClientBlock(seeker.getUniqueId(), 0, 64, 0));
+
+        tick(SOLIDIFY_DELAY);
+        assertEquals(2, platform.getCount(Operation.BLOCK_CHANGE));
+        assertSame(stone, platform.getClientBlock(seeker.getUniqueId(), 2, 64, 0));
+        assertEquals(1, platform.getClientBlockCount(seeker.getUniqueId()));
+    }
+
+    @Test
+    public void undisguisingResetsTheBlock() {
+        start(0);
+        StubPlayer hider = server.createPlayer("hider", world, 0.5, 64, 0.5);
+        StubPlayer seeker = server.createPlayer("seeker", world, 3.5, 64, 3.5);
+        disguiseManager.disguise(hider.getPlayer(), stone);
+        tick(SOLIDIFY_DELAY);
+
+        disguiseManager.undisguise(hider.getUniqueId());
+        tick(1);
+        assertEquals(1, platform.getCount(Operation.BLOCK_RESET));
+        assertEquals(0, platform.getClientBlockCount(seeker.getUniqueId()));
+    }
+
+    @Test
+    public void onlyOneDisguiseTurnsSolidInABlock() {
+        start(0);
+        StubPlayer first = server.createPlayer("first", world, 0.5, 64, 0.5);
+        StubPlayer second = server.createPlayer("second", world, 0.5, 64, 0.5);
+        StubPlayer seeker = server.createPlayer("seeker", world, 3.5, 64, 3.5);
+        disguiseManager.disguise(first.getPlayer(), stone);
+        disguiseManager.disguise(second.getPlayer(), stone);
+        tick(SOLIDIFY_DELAY);
+
+        Disguise firstDisguise = disguiseManager.getDisguise(first.getUniqueId());
+        Disguise secondDisguise = disguiseManager.getDisguise(second.getUniqueId());
+        StubPlayer mobile = firstDisguise.getState() == DisguiseState.SOLID ? second : first;
+        Disguise solid = mobile == first ? secondDisguise : firstDisguise;
+        assertEquals(DisguiseState.SOLID, solid.getState());
+        assertEquals(DisguiseState.MOBILE, disguiseManager.getDisguise(mobile.getUniqueId()).getState());
+
+        // The one that was refused leaving takes nothing from the one that is solid
+        move(mobile, 4.5, 64, 0.5);
+        tick(1);
+        assertEquals(0, platform.getCount(Operation.BLOCK_RESET));
+        assertSame(solid, disguiseManager.getSolidDisguiseAt(world.getUniqueId(), 0, 64, 0));
+        assertSame(stone, platform.getClientBlock(seeker.getUniqueId(), 0, 64, 0));
+    }
+
+    @Test
+    public void viewersOverTheBudgetAreSyncedOnLaterTicks() {
+        start(1);
+        StubPlayer hider = server.createPlayer("hider", world, 0.5, 64, 0.5);
+        List<StubPlayer> seekers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            seekers.add(server.createPlayer("seeker" + i, world, 3.5, 64, 3.5));
+        }
+        disguiseManager.disguise(hider.getPlayer(), stone);
+
+        tick(SOLIDIFY_DELAY);
+        assertEquals(1, platform.getCount(Operation.BLOCK_CHANGE));
+
+        tick(2);
+        assertEquals(3, platform.getCount(Operation.BLOCK_CHANGE));
+        for (StubPlayer seeker : seekers) {
+            assertSame(stone, platform.getClientBlock(seeker.getUniqueId(), 0, 64, 0));
+        }
+
+        // Resets are urgent: they all go out on the next tick, whatever the budget
+        move(hider, 2.5, 64, 0.5);
+        tick(1);
+        assertEquals(3, platform.getCount(Operation.BLOCK_RESET));
+    }
+
+    @Test
+    public void aViewerOverTheBudgetIsSyncedChunkByChunk() {
+        start(1);
+        List<StubPlayer> hiders = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            hiders.add(server.createPlayer("hider" + i, world, i * 16 + 0.5, 64, 0.5)); // One per chunk
+        }
+        StubPlayer seeker = server.createPlayer("seeker", world, 3.5, 64, 3.5);
+        for (StubPlayer hider : hiders) {
+            disguiseManager.disguise(hider.getPlayer(), stone);
+        }
+
+        // Every hider gets the blocks of the other two, the seeker gets all three, never more than one per tick
+        tick(SOLIDIFY_DELAY);
+        long previous = platform.getCount(Operation.BLOCK_CHANGE);
+        for (int i = 0; i < 20; i++) {
+            tick(1);
+            long count = platform.getCount(Operation.BLOCK_CHANGE);
+            assertTrue(count - previous <= 1);
+            previous = count;
+        }
+        assertEquals(9, platform.getCount(Operation.BLOCK_CHANGE));
+        assertEquals(3, platform.getClientBlockCount(seeker.getUniqueId()));
+    }
+
+    @Test
+    public void virtualBlocksFollowTheHiderButAreNotSolid() {
+        start(0, "virtual");
+        StubPlayer hider = server.createPlayer("hider", world, 0.5, 64, 0.5);
+        StubPlayer seeker = server.createPlayer("seeker", world, 3.5, 64, 3.5);
+        disguiseManager.disguise(hider.getPlayer(), stone);
+
+        tick(1);
+        assertSame(stone, platform.getClientBlock(seeker.getUniqueId(), 0, 64, 0));
+        assertNull(disguiseManager.getSolidDisguiseAt(world.getUniqueId(), 0, 64, 0)); // Can't be hit
+
+        // Never shown over a real block
+        platform.setSolid(world.getWorld(), 2, 64, 0, true);
+        move(hider, 2.5, 64, 0.5);
+        tick(1);
+        assertNull(platform.getClientBlock(seeker.getUniqueId(), 0, 64, 0));
+        assertEquals(0, platform.getClientBlockCount(seeker.getUniqueId()));
+    }
+}